@@ -3,6 +3,9 @@ import axios from 'axios';
 
 const API_URL = 'http://localhost:8080/api';
 
+// 每次加载的消息条数
+const PAGE_SIZE = 50;
+
 // 删除有问题的ESLint注释
 /* eslint-disable */
 
@@ -13,13 +16,17 @@ function ChatBox({ conversation, connected, onSendMessage }) {
   const [error, setError] = useState(null);
   const [sending, setSending] = useState(false);
   const [aiResponding, setAiResponding] = useState(false);
+  const [hasOlder, setHasOlder] = useState(false);
+  const [loadingOlder, setLoadingOlder] = useState(false);
   const messageListRef = useRef(null);
   const inputRef = useRef(null);
   const streamingMessageRef = useRef(null);
+  // 加载更早消息前的滚动高度，用于加载后保持当前位置
+  const prevScrollHeightRef = useRef(null);
   // 假设用户ID为1，实际项目中应从认证系统获取
   const userId = 1;
 
-  // 加载会话消息
+  // 加载会话最新的一页消息
   const loadMessages = async () => {
     if (!conversation) return;
     
@@ -27,9 +34,13 @@ function ChatBox({ conversation, connected, onSendMessage }) {
     setError(null);
     try {
       const response = await axios.get(
-        `${API_URL}/messages?conversationId=${conversation.id}&userId=${userId}`
+        `${API_URL}/messages?conversationId=${conversation.id}&userId=${userId}&limit=${PAGE_SIZE}`
       );
-      setMessages(response.data || []);
+      const page = response.data || [];
+      // 仍在生成中（status为2）的AI消息继续接收流式内容
+      setMessages(page.map(m => m.status === 2 ? { ...m, streaming: true } : m));
+      setAiResponding(page.some(m => m.status === 2));
+      setHasOlder(page.length === PAGE_SIZE);
     } catch (error) {
       console.error('加载消息失败:', error);
       setError('无法加载消息，请检查网络连接或稍后再试');
@@ -38,6 +49,30 @@ function ChatBox({ conversation, connected, onSendMessage }) {
     }
   };
 
+  // 加载更早的一页消息
+  const loadOlderMessages = async () => {
+    const oldest = messages.find(m => !m.temporary);
+    if (!conversation || !oldest || loadingOlder) return;
+    
+    setLoadingOlder(true);
+    try {
+      const response = await axios.get(
+        `${API_URL}/messages?conversationId=${conversation.id}&userId=${userId}&before=${oldest.id}&limit=${PAGE_SIZE}`
+      );
+      const page = response.data || [];
+      if (messageListRef.current) {
+        prevScrollHeightRef.current = messageListRef.current.scrollHeight;
+      }
+      setMessages(prev => [...page, ...prev]);
+      setHasOlder(page.length === PAGE_SIZE);
+    } catch (error) {
+      console.error('加载更早消息失败:', error);
+      setError('无法加载更早的消息，请稍后再试');
+    } finally {
+      setLoadingOlder(false);
+    }
+  };
+
   // 发送消息
   const sendMessage = async (e) => {
     e?.preventDefault();
@@ -172,9 +207,12 @@ function ChatBox({ conversation, connected, onSendMessage }) {
 
   // 监听SSE消息更新
   useEffect(() => {
-    if (!connected) return;
+    if (!connected || !conversation) return;
     
-    const eventSource = new EventSource(`${API_URL}/sse/subscribe`);
+    // 只订阅当前会话的事件
+    const eventSource = new EventSource(
+      `${API_URL}/sse/subscribe?conversationId=${conversation.id}&userId=${userId}`
+    );
     
     // 连接事件
     eventSource.onopen = () => {
@@ -234,6 +272,13 @@ function ChatBox({ conversation, connected, onSendMessage }) {
         if (data.conversationId === conversation?.id) {
           // 不要移除流式消息，而是将流式消息更新为最终消息
           setMessages(prev => {
+            // 已在列表中的消息（例如重新加载后仍在生成的消息）按ID更新为最终内容
+            if (prev.some(m => m.id === data.id)) {
+              return prev.map(m => 
+                m.id === data.id ? { ...m, ...data, streaming: false } : m
+              );
+            }
+            
             const streamingMessage = prev.find(m => m.streaming === true);
             
             // 如果存在流式消息，将其替换为最终消息
@@ -248,8 +293,7 @@ function ChatBox({ conversation, connected, onSendMessage }) {
             } else {
               // 检查消息是否已存在
               if (!prev.find(m => 
-                  m.id === data.id || 
-                  (m.content === data.content && m.senderType === data.senderType && !m.temporary)
+                  m.content === data.content && m.senderType === data.senderType && !m.temporary
                 )) {
                 return [...prev, { ...data, streaming: false }];
               }
@@ -338,6 +382,12 @@ function ChatBox({ conversation, connected, onSendMessage }) {
       }
     });
     
+    // 断线期间错过的事件已无法补发，重新加载消息
+    eventSource.addEventListener('重新同步', () => {
+      streamingMessageRef.current = null;
+      loadMessages();
+    });
+    
     // 处理错误消息
     eventSource.addEventListener('错误', (event) => {
       try {
@@ -367,6 +417,12 @@ function ChatBox({ conversation, connected, onSendMessage }) {
   
   // 自动滚动到最新消息（多次setTimeout兜底，确保DOM已更新）
   useLayoutEffect(() => {
+    // 加载更早的消息后保持当前阅读位置，不跳到底部
+    if (prevScrollHeightRef.current !== null && messageListRef.current) {
+      messageListRef.current.scrollTop = messageListRef.current.scrollHeight - prevScrollHeightRef.current;
+      prevScrollHeightRef.current = null;
+      return;
+    }
     if (messageListRef.current) {
       for (let i = 0; i < 3; i++) {
         setTimeout(() => {
@@ -408,6 +464,15 @@ function ChatBox({ conversation, connected, onSendMessage }) {
           <p className="empty-message">暂无消息，发送消息开始对话</p>
         ) : (
           <div className="message-list">
+            {hasOlder && (
+              <button
+                className="load-older-button"
+                onClick={loadOlderMessages}
+                disabled={loadingOlder}
+              >
+                {loadingOlder ? '加载中...' : '加载更早的消息'}
+              </button>
+            )}
             {messages.map((message) => (
               <div 
                 key={message.id} 
@@ -0,0 +1,77 @@
+package com.example.sse.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * 流式响应解码路径的基准测试：把Ollama的NDJSON响应体解码为响应块并提取非空内容
+ * 响应体按网络读取的大小切片，一行JSON会跨越多个切片
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkDecodeBenchmark {
+
+    // 一次响应包含的内容块数
+    @Param({"256"})
+    private int chunks;
+
+    // 每次网络读取的字节数
+    @Param({"1024"})
+    private int sliceSize;
+
+    private final OllamaChunkDecoder decoder = new OllamaChunkDecoder();
+    private List<byte[]> slices;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < chunks; i++) {
+            body.append("{\"model\":\"qwen2:7b\",\"created_at\":\"2024-01-01T00:00:00.000000Z\",")
+                    .append("\"message\":{\"role\":\"assistant\",\"content\":\"词").append(i).append("\"},")
+                    .append("\"done\":false}\n");
+        }
+        body.append("{\"model\":\"qwen2:7b\",\"created_at\":\"2024-01-01T00:00:00.000000Z\",")
+                .append("\"message\":{\"role\":\"assistant\",\"content\":\"\"},\"done\":true,")
+                .append("\"total_duration\":5000000000,\"load_duration\":1000000,")
+                .append("\"prompt_eval_count\":26,\"prompt_eval_duration\":130000000,")
+                .append("\"eval_count\":").append(chunks).append(",\"eval_duration\":4800000000}\n");
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        slices = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length; offset += sliceSize) {
+            slices.add(Arrays.copyOfRange(bytes, offset, Math.min(bytes.length, offset + sliceSize)));
+        }
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) {
+        Flux<DataBuffer> body = Flux.fromIterable(slices).map(DefaultDataBufferFactory.sharedInstance::wrap);
+        OllamaService.contentOf(decoder.decode(body))
+                .doOnNext(blackhole::consume)
+                .blockLast();
+    }
+}
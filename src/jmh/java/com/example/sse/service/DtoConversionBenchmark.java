@@ -0,0 +1,70 @@
+package com.example.sse.service;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.sse.dto.ConversationDTO;
+import com.example.sse.dto.MessageDTO;
+import com.example.sse.model.Conversation;
+import com.example.sse.model.Message;
+
+/**
+ * 消息和会话实体转换为DTO的基准测试
+ * 转换不访问依赖，服务以空依赖构造
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DtoConversionBenchmark {
+
+    private MessageService messageService;
+    private ConversationService conversationService;
+    private Message message;
+    private Conversation conversation;
+
+    @Setup
+    public void setUp() {
+        messageService = new MessageService(null, null, null, null, null, null, null, null);
+        conversationService = new ConversationService(null, null, null);
+
+        conversation = new Conversation();
+        conversation.setId(1);
+        conversation.setUserId(1);
+        conversation.setTitle("新的对话");
+        conversation.setStatus(1);
+        conversation.setCreatedAt(LocalDateTime.now());
+        conversation.setUpdatedAt(LocalDateTime.now());
+
+        message = new Message();
+        message.setId(1);
+        message.setConversation(conversation);
+        message.setSenderType(Message.SENDER_AI);
+        message.setContent("你好！有什么可以帮你的吗？");
+        message.setCreatedAt(LocalDateTime.now());
+        message.setStatus(Message.STATUS_COMPLETE);
+    }
+
+    @Benchmark
+    public MessageDTO messageToDTO() {
+        return messageService.convertToDTO(message);
+    }
+
+    @Benchmark
+    public ConversationDTO conversationToDTO() {
+        return conversationService.convertToDTO(conversation);
+    }
+}
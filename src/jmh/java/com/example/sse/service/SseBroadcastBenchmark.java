@@ -0,0 +1,112 @@
+package com.example.sse.service;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * SseService.sendToAll的基准测试：一次广播的编码和分发到所有连接队列
+ * 连接使用不做实际写出的emitter，写线程照常排空队列；
+ * 积压超过单个队列的容量时等写线程追上，测得的是不丢事件的持续广播吞吐，不包括溢出处理
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SseBroadcastBenchmark {
+
+    // 每个连接的队列容量，所有连接的积压总数不超过它时任何一个队列都不会溢出
+    private static final int QUEUE_CAPACITY = 65536;
+
+    @Param({"1", "100", "10000"})
+    private int emitters;
+
+    private final LongAdder delivered = new LongAdder();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private SseDispatcher dispatcher;
+    private SseService sseService;
+    private Map<String, Object> payload;
+    private long dispatched;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dispatcher = new SseDispatcher(QUEUE_CAPACITY, SseDispatcher.OverflowPolicy.DROP_OLDEST, 4, 10000,
+                new ObjectMapper(), meterRegistry);
+        sseService = new SseService(event -> { }, dispatcher, new ReactiveSseService(256),
+                new SseReplayBuffer(256, 1024), 45000, meterRegistry);
+        for (int i = 0; i < emitters; i++) {
+            sseService.createEmitter(new CountingEmitter(delivered), Collections.emptySet(), null);
+        }
+        // 等连接事件写完后再开始计数
+        while (delivered.sum() < emitters) {
+            Thread.onSpinWait();
+        }
+        delivered.reset();
+        payload = Map.of(
+            "conversationId", 1,
+            "content", "这是一段流式响应内容 streamed content",
+            "senderType", 2,
+            "isPartial", true
+        );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        dispatcher.destroy();
+        double overflows = meterRegistry.get("sse.dispatch.overflow").counter().count();
+        if (overflows > 0) {
+            throw new IllegalStateException("基准测试进入了溢出路径: " + overflows);
+        }
+    }
+
+    @Benchmark
+    public void sendToAll() {
+        sseService.sendToAll("AI响应流", payload);
+        dispatched += emitters;
+        while (dispatched - delivered.sum() > QUEUE_CAPACITY) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * 只计数、不写出的emitter
+     */
+    private static class CountingEmitter extends SseEmitter {
+        private final LongAdder delivered;
+
+        private CountingEmitter(LongAdder delivered) {
+            this.delivered = delivered;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            delivered.increment();
+        }
+
+        @Override
+        public void complete() {
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.sse.config;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.example.sse.service.OllamaBackend;
+import com.example.sse.service.OllamaBackendPool;
+
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Ollama HTTP客户端配置
+ * 使用独立的连接池，长时间的流式响应不会受默认连接数和超时限制影响，
+ * 连接池指标通过actuator的reactor.netty.connection.provider.*暴露；
+ * 配置多个节点时由OllamaBackendPool负责路由和探活
+ */
+@Configuration
+public class OllamaClientConfig {
+
+    // 逗号分隔的Ollama节点地址
+    @Value("${ollama.backends:${ollama.base-url:http://localhost:11434}}")
+    private String backendUrls;
+
+    @Value("${ollama.health.failure-threshold:3}")
+    private int failureThreshold;
+
+    @Value("${ollama.health.probe-timeout-ms:2000}")
+    private long probeTimeoutMillis;
+
+    @Value("${ollama.affinity.max-entries:10000}")
+    private long maxAffinities;
+
+    @Value("${ollama.affinity.idle-ms:1800000}")
+    private long affinityIdleMillis;
+
+    @Value("${ollama.pool.max-connections:64}")
+    private int maxConnections;
+
+    @Value("${ollama.pool.pending-acquire-max-count:256}")
+    private int pendingAcquireMaxCount;
+
+    @Value("${ollama.pool.pending-acquire-timeout-ms:10000}")
+    private long pendingAcquireTimeoutMillis;
+
+    @Value("${ollama.pool.max-idle-time-ms:60000}")
+    private long maxIdleTimeMillis;
+
+    @Value("${ollama.pool.max-life-time-ms:600000}")
+    private long maxLifeTimeMillis;
+
+    @Value("${ollama.pool.evict-interval-ms:30000}")
+    private long evictIntervalMillis;
+
+    @Value("${ollama.client.connect-timeout-ms:3000}")
+    private int connectTimeoutMillis;
+
+    @Value("${ollama.client.read-timeout-ms:60000}")
+    private long readTimeoutMillis;
+
+    @Value("${ollama.client.response-timeout-ms:60000}")
+    private long responseTimeoutMillis;
+
+    @Value("${ollama.client.call-timeout-ms:600000}")
+    private long callTimeoutMillis;
+
+    @Value("${ollama.client.max-in-memory-size:4194304}")
+    private int maxInMemorySize;
+
+    /**
+     * Ollama专用连接池，空闲连接在后台定期清理
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider ollamaConnectionProvider() {
+        return ConnectionProvider.builder("ollama")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMillis))
+                .maxIdleTime(Duration.ofMillis(maxIdleTimeMillis))
+                .maxLifeTime(Duration.ofMillis(maxLifeTimeMillis))
+                .evictInBackground(Duration.ofMillis(evictIntervalMillis))
+                .metrics(true)
+                .build();
+    }
+
+    /**
+     * 访问Ollama的HttpClient，所有节点共用同一连接池（按节点地址分别计数），不设置响应超时
+     */
+    @Bean
+    public HttpClient ollamaHttpClient(ConnectionProvider ollamaConnectionProvider) {
+        return HttpClient.create(ollamaConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .keepAlive(true);
+    }
+
+    /**
+     * Ollama节点池，每个节点一个流式WebClient和一个非流式WebClient，共用同一连接池
+     * 流式请求：responseTimeout限制等待响应头的时间，read-timeout限制相邻两块之间的间隔；
+     * 非流式请求在生成结束后才返回响应头，只以call-timeout限制整个生成时间
+     */
+    @Bean
+    public OllamaBackendPool ollamaBackendPool(HttpClient ollamaHttpClient) {
+        ReactorClientHttpConnector streamConnector = new ReactorClientHttpConnector(ollamaHttpClient
+                .responseTimeout(Duration.ofMillis(responseTimeoutMillis))
+                .doOnConnected(connection -> connection.addHandlerLast(
+                        new ReadTimeoutHandler(readTimeoutMillis, TimeUnit.MILLISECONDS))));
+        ReactorClientHttpConnector callConnector = new ReactorClientHttpConnector(ollamaHttpClient
+                .responseTimeout(Duration.ofMillis(callTimeoutMillis)));
+        List<OllamaBackend> backends = Arrays.stream(backendUrls.split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .map(url -> new OllamaBackend(url, webClient(url, streamConnector), webClient(url, callConnector)))
+                .collect(Collectors.toList());
+        return new OllamaBackendPool(backends, failureThreshold, Duration.ofMillis(probeTimeoutMillis),
+                maxAffinities, Duration.ofMillis(affinityIdleMillis));
+    }
+
+    private WebClient webClient(String baseUrl, ReactorClientHttpConnector connector) {
+        return WebClient.builder()
+                .baseUrl(baseUrl)
+                .clientConnector(connector)
+                .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(maxInMemorySize))
+                .build();
+    }
+}
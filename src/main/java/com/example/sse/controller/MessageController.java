@@ -3,7 +3,12 @@ package com.example.sse.controller;
 import java.util.List;
 import java.util.Map;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -12,6 +17,8 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.server.ResponseStatusException;
 
 import com.example.sse.dto.MessageDTO;
 import com.example.sse.service.MessageService;
@@ -20,25 +27,74 @@ import com.example.sse.service.MessageService;
 @RequestMapping("/api/messages")
 public class MessageController {
 
+    // 分页查询默认每页条数
+    private static final int DEFAULT_PAGE_SIZE = 50;
+
+    // 导出格式：每行一条JSON
+    private static final String NDJSON = "application/x-ndjson";
+
     private final MessageService messageService;
+    private final long exportTimeoutMillis;
 
     @Autowired
-    public MessageController(MessageService messageService) {
+    public MessageController(MessageService messageService,
+                             @Value("${messages.export.timeout-ms:3600000}") long exportTimeoutMillis) {
         this.messageService = messageService;
+        this.exportTimeoutMillis = exportTimeoutMillis;
     }
 
     /**
-     * 获取会话的所有消息
+     * 获取会话的消息
+     * 指定limit、before或after时按消息ID游标分页，都不指定时返回全部消息（兼容旧客户端）
      */
     @GetMapping
     public ResponseEntity<List<MessageDTO>> getMessagesForConversation(
             @RequestParam Integer conversationId,
-            @RequestParam Integer userId) {
+            @RequestParam Integer userId,
+            @RequestParam(required = false) Integer before,
+            @RequestParam(required = false) Integer after,
+            @RequestParam(required = false) Integer limit) {
+        
+        if (before != null && after != null) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (before == null && after == null && limit == null) {
+            return ResponseEntity.ok(messageService.getMessagesForConversation(conversationId, userId));
+        }
         
-        List<MessageDTO> messages = messageService.getMessagesForConversation(conversationId, userId);
+        List<MessageDTO> messages = messageService.getMessagesPage(conversationId, userId, before, after,
+                limit == null ? DEFAULT_PAGE_SIZE : limit);
         return ResponseEntity.ok(messages);
     }
 
+    /**
+     * 以NDJSON格式导出消息，每行一条JSON
+     * 指定conversationId时导出该会话，否则导出用户所有未删除会话的消息；边读数据库边写响应，不在内存中汇总
+     * 导出耗时与消息数成正比，使用单独的超时而不是spring.mvc.async.request-timeout
+     */
+    @GetMapping(value = "/export", produces = NDJSON)
+    public WebAsyncTask<Void> exportMessages(
+            @RequestParam Integer userId,
+            @RequestParam(required = false) Integer conversationId,
+            HttpServletResponse response) {
+        
+        if (conversationId != null && !messageService.isOwner(conversationId, userId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+        
+        String filename = conversationId == null
+                ? "user-" + userId + "-messages.ndjson"
+                : "conversation-" + conversationId + "-messages.ndjson";
+        response.setContentType(NDJSON);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename(filename).build().toString());
+        return new WebAsyncTask<>(exportTimeoutMillis, () -> {
+            messageService.exportMessages(userId, conversationId, response.getOutputStream());
+            response.flushBuffer();
+            return null;
+        });
+    }
+
     /**
      * 发送用户消息
      */
@@ -1,22 +1,35 @@
 package com.example.sse.controller;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import com.example.sse.dto.MessageDTO;
+import com.example.sse.service.GenerationQueueFullException;
+import com.example.sse.service.GenerationRegistry;
+import com.example.sse.service.GenerationScheduler;
 import com.example.sse.service.MessageService;
 import com.example.sse.service.OllamaService;
+import com.example.sse.service.ReactiveSseService;
 import com.example.sse.service.SecurityService;
 import com.example.sse.service.SseService;
 
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
 @RestController
 @RequestMapping("/api/sse")
 public class SseController {
@@ -25,21 +38,42 @@ public class SseController {
     private final MessageService messageService;
     private final SseService sseService;
     private final OllamaService ollamaService;
+    private final ReactiveSseService reactiveSseService;
+    private final GenerationScheduler generationScheduler;
+    private final GenerationRegistry generationRegistry;
 
     @Autowired
-    public SseController(SseService sseService, MessageService messageService, SecurityService securityService, OllamaService ollamaService) {
+    public SseController(SseService sseService, MessageService messageService, SecurityService securityService,
+                         OllamaService ollamaService, ReactiveSseService reactiveSseService,
+                         GenerationScheduler generationScheduler, GenerationRegistry generationRegistry) {
         this.securityService = securityService;
         this.sseService = sseService;
         this.messageService = messageService;
         this.ollamaService = ollamaService;
+        this.reactiveSseService = reactiveSseService;
+        this.generationScheduler = generationScheduler;
+        this.generationRegistry = generationRegistry;
     }
 
     /**
      * 创建SSE连接
+     * 指定conversationId/userId时只接收对应主题的事件，都不指定时接收所有事件
+     * 浏览器断线重连时会带上Last-Event-ID，服务端补发之后错过的事件
      */
     @GetMapping(value = "/subscribe", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public SseEmitter subscribe() {
-        return sseService.createEmitter();
+    public SseEmitter subscribe(@RequestParam(required = false) Integer conversationId,
+                                @RequestParam(required = false) Integer userId,
+                                @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        return sseService.createEmitter(topicsOf(conversationId, userId), lastEventId);
+    }
+
+    /**
+     * 创建响应式SSE连接，事件与/subscribe相同，但不占用容器线程
+     */
+    @GetMapping(value = "/flux", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> subscribeFlux(@RequestParam(required = false) Integer conversationId,
+                                                       @RequestParam(required = false) Integer userId) {
+        return reactiveSseService.subscribe(topicsOf(conversationId, userId));
     }
 
     /**
@@ -77,23 +111,120 @@ public class SseController {
             throw new IllegalArgumentException("缺少必要参数");
         }
         
+        // 先预留调度名额，排队已满时直接拒绝，不保存消息
+        GenerationScheduler.Reservation reservation = generationScheduler.reserve();
+        if (reservation == null) {
+            throw new GenerationQueueFullException();
+        }
+        
         // 添加用户消息
-        MessageDTO userMessageDTO = messageService.addUserMessage(conversationId, userId, content);
+        MessageDTO userMessageDTO;
+        try {
+            userMessageDTO = messageService.addUserMessage(conversationId, userId, content);
+        } catch (RuntimeException e) {
+            reservation.cancel();
+            throw e;
+        }
         
-        // 使用流式API生成AI响应，响应将通过SSE传递给客户端
-        ollamaService.generateConversationResponse(content, conversationId, messageService, sseService);
+        // 以预留的名额排队后使用流式API生成AI响应，响应将通过SSE传递给客户端
+        // 排队中被停止时直接通知客户端结束
+        reservation.submit(userId, conversationId, release ->
+                ollamaService.generateConversationResponse(content, conversationId, messageService, sseService, release),
+                () -> sseService.sendToTopic(SseService.conversationTopic(conversationId), "AI响应结束", Map.of(
+                    "conversationId", conversationId,
+                    "complete", true,
+                    "cancelled", true
+                )));
         
         // 返回用户消息对象，AI的响应会通过SSE推送
         return userMessageDTO;
     }
     
+    /**
+     * 发送用户消息到会话，直接以SSE流返回AI响应
+     * Ollama的响应块按客户端的消费速度逐个写出，回复经检查点增量保存，服务崩溃时已生成的部分不会丢失
+     */
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> streamChatMessage(@RequestBody Map<String, Object> payload) {
+        Integer conversationId = (Integer) payload.get("conversationId");
+        Integer userId = (Integer) payload.get("userId");
+        String content = (String) payload.get("content");
+        
+        if (conversationId == null || userId == null || content == null || content.isEmpty()) {
+            throw new IllegalArgumentException("缺少必要参数");
+        }
+        
+        // 响应开始前预留调度名额，排队已满时返回429，不保存消息
+        GenerationScheduler.Reservation reservation = generationScheduler.reserve();
+        if (reservation == null) {
+            throw new GenerationQueueFullException();
+        }
+        
+        try {
+            messageService.addUserMessage(conversationId, userId, content);
+        } catch (RuntimeException e) {
+            reservation.cancel();
+            throw e;
+        }
+        
+        // 以预留的名额排队，轮到时才向Ollama发起请求；回复经检查点增量保存，
+        // 停止或客户端断开时已生成的部分保存为中断的消息
+        Flux<String> generation = reservation.schedule(userId, conversationId,
+                ollamaService.streamConversation(conversationId, content, messageService));
+        return generationRegistry.cancellable(conversationId, generation, false)
+                .map(chunk -> ServerSentEvent.<Object>builder()
+                        .event("AI响应流")
+                        .data(Map.of(
+                            "conversationId", conversationId,
+                            "content", chunk,
+                            "senderType", 2,
+                            "isPartial", true
+                        ))
+                        .build())
+                // 流结束时回复已保存，再通知客户端
+                .concatWith(Mono.fromSupplier(() -> ServerSentEvent.<Object>builder()
+                        .event("AI响应结束")
+                        .data(Map.of("conversationId", conversationId, "complete", true))
+                        .build()))
+                .onErrorResume(error -> Flux.just(ServerSentEvent.<Object>builder()
+                        .event("错误")
+                        .data(Map.of(
+                            "conversationId", conversationId,
+                            "error", "AI响应生成失败: " + error.getMessage()
+                        ))
+                        .build()));
+    }
+    
+    /**
+     * 停止会话进行中和排队中的AI生成，已生成的部分会被保存
+     */
+    @PostMapping("/chat/{conversationId}/cancel")
+    public Map<String, Boolean> cancelGeneration(@PathVariable Integer conversationId) {
+        return Map.of("cancelled", generationRegistry.cancel(conversationId));
+    }
+    
     /**
      * 获取AI模型简介
+     * 异步返回，生成期间不占用请求线程
      */
     @GetMapping("/ai-intro")
-    public Map<String, String> getAiIntroduction() {
-        String intro = ollamaService.generateIntroductionResponse();
-        return Map.of("introduction", intro);
+    public Mono<Map<String, String>> getAiIntroduction() {
+        return ollamaService.generateIntroductionAsync()
+                .map(intro -> Map.of("introduction", intro));
+    }
+
+    /**
+     * 根据请求参数计算订阅主题
+     */
+    private List<String> topicsOf(Integer conversationId, Integer userId) {
+        List<String> topics = new ArrayList<>();
+        if (conversationId != null) {
+            topics.add(SseService.conversationTopic(conversationId));
+        }
+        if (userId != null) {
+            topics.add(SseService.userTopic(userId));
+        }
+        return topics;
     }
 
     /**
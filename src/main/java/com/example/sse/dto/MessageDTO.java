@@ -14,6 +14,16 @@ public class MessageDTO {
     public MessageDTO() {
     }
 
+    public MessageDTO(Integer id, Integer conversationId, Integer senderType, String content,
+                      LocalDateTime createdAt, Integer status) {
+        this.id = id;
+        this.conversationId = conversationId;
+        this.senderType = senderType;
+        this.content = content;
+        this.createdAt = createdAt;
+        this.status = status;
+    }
+
     // Getters and Setters
     public Integer getId() {
         return id;
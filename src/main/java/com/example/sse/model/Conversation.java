@@ -28,6 +28,16 @@ public class Conversation {
     @Column(nullable = false)
     private Integer status = 1;
 
+    // Denormalized listing columns, maintained by bulk SQL on message writes (read-only for JPA)
+    @Column(name = "message_count", insertable = false, updatable = false)
+    private Integer messageCount = 0;
+
+    @Column(name = "last_message_preview", insertable = false, updatable = false)
+    private String lastMessagePreview;
+
+    @Column(name = "last_message_at", insertable = false, updatable = false)
+    private LocalDateTime lastMessageAt;
+
     @OneToMany(mappedBy = "conversation", cascade = CascadeType.ALL)
     private List<Message> messages = new ArrayList<>();
 
@@ -80,6 +90,18 @@ public class Conversation {
         this.status = status;
     }
 
+    public Integer getMessageCount() {
+        return messageCount;
+    }
+
+    public String getLastMessagePreview() {
+        return lastMessagePreview;
+    }
+
+    public LocalDateTime getLastMessageAt() {
+        return lastMessageAt;
+    }
+
     public List<Message> getMessages() {
         return messages;
     }
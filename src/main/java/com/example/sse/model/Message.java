@@ -31,6 +31,11 @@ public class Message {
     public static final int SENDER_USER = 1;
     public static final int SENDER_AI = 2;
 
+    // Constants for message status
+    public static final int STATUS_COMPLETE = 1;
+    public static final int STATUS_GENERATING = 2;
+    public static final int STATUS_INTERRUPTED = 3;
+
     // Getters and Setters
     public Integer getId() {
         return id;
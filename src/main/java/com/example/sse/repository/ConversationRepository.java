@@ -2,8 +2,12 @@ package com.example.sse.repository;
 
 import com.example.sse.model.Conversation;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
@@ -14,4 +18,20 @@ public interface ConversationRepository extends JpaRepository<Conversation, Inte
     
     // Find conversations by ID and user ID (for security)
     Conversation findByIdAndUserId(Integer id, Integer userId);
+    
+    // Change the status of a conversation without loading it
+    @Modifying
+    @Query("update Conversation c set c.status = :status, c.updatedAt = :updatedAt where c.id = :id")
+    int updateStatus(@Param("id") Integer id, @Param("status") Integer status,
+                     @Param("updatedAt") LocalDateTime updatedAt);
+    
+    // Replace the listing preview of a conversation
+    @Modifying
+    @Query("update Conversation c set c.lastMessagePreview = :preview where c.id = :id")
+    int updateLastMessagePreview(@Param("id") Integer id, @Param("preview") String preview);
+    
+    // Account for a removed message in the listing count
+    @Modifying
+    @Query("update Conversation c set c.messageCount = c.messageCount - 1 where c.id = :id and c.messageCount > 0")
+    int decrementMessageCount(@Param("id") Integer id);
 } 
\ No newline at end of file
@@ -1,10 +1,23 @@
 package com.example.sse.repository;
 
+import com.example.sse.dto.MessageDTO;
 import com.example.sse.model.Message;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import javax.persistence.QueryHint;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 @Repository
 public interface MessageRepository extends JpaRepository<Message, Integer> {
@@ -12,6 +25,70 @@ public interface MessageRepository extends JpaRepository<Message, Integer> {
     // Find messages by conversation ID
     List<Message> findByConversationIdOrderByCreatedAtAsc(Integer conversationId);
     
+    // Find the most recent messages of a conversation, newest first
+    List<Message> findByConversationIdOrderByCreatedAtDescIdDesc(Integer conversationId, Pageable pageable);
+    
+    // Most recent messages with the given status and non-empty content, newest first
+    @Query("select m from Message m where m.conversation.id = :conversationId and m.status = :status "
+            + "and m.content <> '' order by m.createdAt desc, m.id desc")
+    List<Message> findRecentWithContent(@Param("conversationId") Integer conversationId,
+                                        @Param("status") Integer status, Pageable pageable);
+    
+    // Creation time of a message, used as the keyset cursor position
+    @Query("select m.createdAt from Message m where m.id = :id and m.conversation.id = :conversationId")
+    Optional<LocalDateTime> findCreatedAt(@Param("conversationId") Integer conversationId, @Param("id") Integer id);
+    
+    // Page of messages older than the cursor, newest first
+    @Query("select m from Message m where m.conversation.id = :conversationId "
+            + "and (m.createdAt < :createdAt or (m.createdAt = :createdAt and m.id < :id)) "
+            + "order by m.createdAt desc, m.id desc")
+    List<Message> findPageBefore(@Param("conversationId") Integer conversationId,
+                                 @Param("createdAt") LocalDateTime createdAt, @Param("id") Integer id,
+                                 Pageable pageable);
+    
+    // Page of messages newer than the cursor, oldest first
+    @Query("select m from Message m where m.conversation.id = :conversationId "
+            + "and (m.createdAt > :createdAt or (m.createdAt = :createdAt and m.id > :id)) "
+            + "order by m.createdAt asc, m.id asc")
+    List<Message> findPageAfter(@Param("conversationId") Integer conversationId,
+                                @Param("createdAt") LocalDateTime createdAt, @Param("id") Integer id,
+                                Pageable pageable);
+    
     // Count messages in a conversation
     Long countByConversationId(Integer conversationId);
+    
+    // Stream all messages of a conversation as DTOs for export (row by row, nothing kept in the session)
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    @Query("select new com.example.sse.dto.MessageDTO(m.id, m.conversation.id, m.senderType, m.content, "
+            + "m.createdAt, m.status) from Message m where m.conversation.id = :conversationId "
+            + "order by m.createdAt asc, m.id asc")
+    Stream<MessageDTO> streamByConversationId(@Param("conversationId") Integer conversationId);
+    
+    // Stream every message of a user's non-deleted conversations as DTOs for export
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    @Query("select new com.example.sse.dto.MessageDTO(m.id, m.conversation.id, m.senderType, m.content, "
+            + "m.createdAt, m.status) from Message m where m.conversation.userId = :userId "
+            + "and m.conversation.status <> 0 order by m.conversation.id asc, m.createdAt asc, m.id asc")
+    Stream<MessageDTO> streamByUserId(@Param("userId") Integer userId);
+    
+    // Overwrite the content of a message without loading it
+    @Modifying
+    @Query("update Message m set m.content = :content where m.id = :id")
+    int updateContent(@Param("id") Integer id, @Param("content") String content);
+    
+    // Overwrite content and status of a message without loading it
+    @Modifying
+    @Query("update Message m set m.content = :content, m.status = :status where m.id = :id")
+    int updateContentAndStatus(@Param("id") Integer id, @Param("content") String content,
+                               @Param("status") Integer status);
+    
+    // Change the status of a message without loading it
+    @Modifying
+    @Query("update Message m set m.status = :status where m.id = :id")
+    int updateStatus(@Param("id") Integer id, @Param("status") Integer status);
+    
+    // Move every message in one status to another
+    @Modifying
+    @Query("update Message m set m.status = :to where m.status = :from")
+    int updateAllStatus(@Param("from") Integer from, @Param("to") Integer to);
 } 
\ No newline at end of file
@@ -0,0 +1,101 @@
+package com.example.sse.service;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 流式响应块合并器
+ * 把模型逐token输出的小块按时间窗口或字符数阈值合并后再推送，
+ * 减少SSE事件数量、序列化次数和写socket次数
+ */
+@Component
+public class ChunkCoalescer implements DisposableBean {
+
+    private final long windowMillis;
+    private final int maxChars;
+    private final ScheduledExecutorService timer;
+
+    public ChunkCoalescer(@Value("${sse.coalesce.window-ms:30}") long windowMillis,
+                          @Value("${sse.coalesce.max-chars:256}") int maxChars) {
+        this.windowMillis = windowMillis;
+        this.maxChars = maxChars;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chunk-coalescer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 为一次生成创建合并缓冲区
+     * @param sink 合并后的内容输出
+     */
+    public Batch open(Consumer<String> sink) {
+        return new Batch(sink);
+    }
+
+    @Override
+    public void destroy() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * 单次生成的合并缓冲区，append/flush/close可在不同线程调用
+     */
+    public class Batch {
+        private final Consumer<String> sink;
+        private final StringBuilder buffer = new StringBuilder();
+        private ScheduledFuture<?> pendingFlush;
+        private boolean closed;
+
+        private Batch(Consumer<String> sink) {
+            this.sink = sink;
+        }
+
+        /**
+         * 追加响应块，超过字符阈值立即输出，否则在时间窗口结束时输出
+         */
+        public synchronized void append(String chunk) {
+            if (closed) {
+                return;
+            }
+            buffer.append(chunk);
+            if (windowMillis <= 0 || buffer.length() >= maxChars) {
+                flush();
+            } else if (pendingFlush == null) {
+                pendingFlush = timer.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * 立即输出缓冲区中的内容
+         */
+        public synchronized void flush() {
+            if (pendingFlush != null) {
+                pendingFlush.cancel(false);
+                pendingFlush = null;
+            }
+            if (buffer.length() == 0) {
+                return;
+            }
+            String content = buffer.toString();
+            buffer.setLength(0);
+            sink.accept(content);
+        }
+
+        /**
+         * 输出剩余内容并关闭缓冲区，之后追加的内容会被忽略
+         */
+        public synchronized void close() {
+            flush();
+            closed = true;
+        }
+    }
+}
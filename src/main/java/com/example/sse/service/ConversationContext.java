@@ -0,0 +1,172 @@
+package com.example.sse.service;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import com.example.sse.model.Message;
+import com.example.sse.repository.MessageRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * 会话上下文构建器
+ * 在内存中为每个会话保留最近若干轮对话，新消息保存时追加；
+ * 构建请求时从最新一轮往前取，直到达到token预算，每次请求只需O(窗口)而不是读取全部历史
+ */
+@Component
+public class ConversationContext {
+
+    private final int maxTokens;
+    private final int maxTurns;
+    private final MessageRepository messageRepository;
+
+    // 会话ID -> 最近的对话轮次，长时间未访问的会话被淘汰，下次使用时从数据库重新加载
+    private final Cache<Integer, Tail> tails;
+
+    @Autowired
+    public ConversationContext(@Value("${ollama.context.max-tokens:3000}") int maxTokens,
+                               @Value("${ollama.context.max-turns:50}") int maxTurns,
+                               @Value("${ollama.context.max-conversations:10000}") long maxConversations,
+                               @Value("${ollama.context.idle-expire-ms:1800000}") long idleExpireMillis,
+                               MessageRepository messageRepository) {
+        this.maxTokens = maxTokens;
+        this.maxTurns = maxTurns;
+        this.messageRepository = messageRepository;
+        this.tails = Caffeine.newBuilder()
+                .maximumSize(maxConversations)
+                .expireAfterAccess(Duration.ofMillis(idleExpireMillis))
+                .build();
+    }
+
+    /**
+     * 单轮对话
+     */
+    private static final class Turn {
+        private final String role;
+        private final String content;
+        private final int tokens;
+
+        private Turn(String role, String content) {
+            this.role = role;
+            this.content = content;
+            this.tokens = estimateTokens(content);
+        }
+    }
+
+    /**
+     * 单个会话最近的对话轮次，按时间顺序
+     */
+    private final class Tail {
+        private final Deque<Turn> turns = new ArrayDeque<>();
+
+        private synchronized void append(Turn turn) {
+            turns.addLast(turn);
+            while (turns.size() > maxTurns) {
+                turns.removeFirst();
+            }
+        }
+
+        /**
+         * 从最新一轮往前取，直到超出token预算；最新一轮总是保留
+         */
+        private synchronized List<Map<String, String>> window(String userMessage) {
+            List<Map<String, String>> messages = new ArrayList<>();
+            Turn last = turns.peekLast();
+            // 当前用户消息不在记录中时补在最后
+            if (userMessage != null && (last == null || !"user".equals(last.role) || !userMessage.equals(last.content))) {
+                Turn pending = new Turn("user", userMessage);
+                messages.add(Map.of("role", pending.role, "content", pending.content));
+                return collect(messages, turns.descendingIterator(), pending.tokens);
+            }
+            return collect(messages, turns.descendingIterator(), 0);
+        }
+
+        private List<Map<String, String>> collect(List<Map<String, String>> messages, Iterator<Turn> newestFirst,
+                                                  int used) {
+            while (newestFirst.hasNext()) {
+                Turn turn = newestFirst.next();
+                if (!messages.isEmpty() && used + turn.tokens > maxTokens) {
+                    break;
+                }
+                used += turn.tokens;
+                messages.add(Map.of("role", turn.role, "content", turn.content));
+            }
+            Collections.reverse(messages);
+            return messages;
+        }
+    }
+
+    /**
+     * 构建发送给/api/chat的消息列表
+     * @param conversationId 会话ID
+     * @param userMessage 当前用户消息，已记录在上下文中时不会重复添加
+     * @return 按时间顺序排列、总token数不超过预算的消息
+     */
+    public List<Map<String, String>> build(Integer conversationId, String userMessage) {
+        return tails.get(conversationId, this::load).window(userMessage);
+    }
+
+    /**
+     * 记录一条已保存的消息，会话上下文未加载时忽略（下次使用时从数据库加载）
+     */
+    public void record(Integer conversationId, int senderType, String content) {
+        Tail tail = tails.getIfPresent(conversationId);
+        if (tail != null && content != null && !content.isEmpty()) {
+            tail.append(new Turn(roleOf(senderType), content));
+        }
+    }
+
+    /**
+     * 丢弃会话的上下文，例如会话被删除时
+     */
+    public void evict(Integer conversationId) {
+        tails.invalidate(conversationId);
+    }
+
+    /**
+     * 从数据库加载会话最近的消息
+     * 只取已完成且有内容的消息：生成中的占位消息、中断留下的半截回复不进入上下文
+     */
+    private Tail load(Integer conversationId) {
+        List<Message> recent = messageRepository.findRecentWithContent(
+                conversationId, Message.STATUS_COMPLETE, PageRequest.of(0, maxTurns));
+        Tail tail = new Tail();
+        for (int i = recent.size() - 1; i >= 0; i--) {
+            Message message = recent.get(i);
+            tail.append(new Turn(roleOf(message.getSenderType()), message.getContent()));
+        }
+        return tail;
+    }
+
+    private static String roleOf(int senderType) {
+        return senderType == Message.SENDER_AI ? "assistant" : "user";
+    }
+
+    /**
+     * 近似估计文本的token数：中日韩字符按每字一个token，其余按每4个字符一个token
+     */
+    static int estimateTokens(String text) {
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '⺀' && c <= '鿿' || c >= '가' && c <= '힯' || c >= '豈' && c <= '﫿') {
+                cjk++;
+            } else {
+                other++;
+            }
+        }
+        return cjk + (other + 3) / 4;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.sse.service;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.example.sse.model.Conversation;
+import com.example.sse.repository.ConversationRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * 会话元数据（所有者、状态、标题）的本地缓存
+ * 消息读写前的会话存在性和归属校验命中缓存时不再查询数据库；
+ * 会话的标题或状态变更后需调用{@link #invalidate(Integer)}
+ */
+@Component
+public class ConversationMetadataCache {
+
+    private final ConversationRepository conversationRepository;
+
+    // 会话ID -> 元数据，不存在的会话不缓存
+    private final Cache<Integer, Metadata> metadata;
+
+    @Autowired
+    public ConversationMetadataCache(@Value("${conversation.cache.max-size:10000}") long maxSize,
+                                     @Value("${conversation.cache.ttl-ms:600000}") long ttlMillis,
+                                     ConversationRepository conversationRepository) {
+        this.conversationRepository = conversationRepository;
+        this.metadata = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMillis(ttlMillis))
+                .build();
+    }
+
+    /**
+     * 会话元数据快照
+     */
+    public static final class Metadata {
+        private final Integer userId;
+        private final Integer status;
+        private final String title;
+
+        private Metadata(Conversation conversation) {
+            this.userId = conversation.getUserId();
+            this.status = conversation.getStatus();
+            this.title = conversation.getTitle();
+        }
+
+        public Integer getUserId() {
+            return userId;
+        }
+
+        public Integer getStatus() {
+            return status;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+    }
+
+    /**
+     * 获取会话元数据，未缓存时从数据库加载
+     */
+    public Optional<Metadata> get(Integer conversationId) {
+        Metadata cached = metadata.getIfPresent(conversationId);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        Optional<Metadata> loaded = conversationRepository.findById(conversationId).map(Metadata::new);
+        loaded.ifPresent(value -> metadata.put(conversationId, value));
+        return loaded;
+    }
+
+    /**
+     * 会话是否存在
+     */
+    public boolean exists(Integer conversationId) {
+        return get(conversationId).isPresent();
+    }
+
+    /**
+     * 会话是否存在且属于该用户
+     */
+    public boolean isOwner(Integer conversationId, Integer userId) {
+        return get(conversationId).map(value -> value.getUserId().equals(userId)).orElse(false);
+    }
+
+    /**
+     * 放入刚创建或刚更新的会话
+     */
+    public void put(Conversation conversation) {
+        metadata.put(conversation.getId(), new Metadata(conversation));
+    }
+
+    /**
+     * 使会话的缓存失效
+     * 在事务中调用时提交后再次失效，避免提交前被并发读取重新加载旧数据
+     */
+    public void invalidate(Integer conversationId) {
+        metadata.invalidate(conversationId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    metadata.invalidate(conversationId);
+                }
+            });
+        }
+    }
+}
@@ -2,13 +2,12 @@ package com.example.sse.service;
 
 import com.example.sse.dto.ConversationDTO;
 import com.example.sse.model.Conversation;
-import com.example.sse.model.Message;
 import com.example.sse.repository.ConversationRepository;
-import com.example.sse.repository.MessageRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -16,41 +15,36 @@ import java.util.stream.Collectors;
 public class ConversationService {
     
     private final ConversationRepository conversationRepository;
-    private final MessageRepository messageRepository;
+    private final ConversationContext conversationContext;
+    private final ConversationMetadataCache conversationMetadata;
     
     @Autowired
     public ConversationService(ConversationRepository conversationRepository, 
-                               MessageRepository messageRepository) {
+                               ConversationContext conversationContext,
+                               ConversationMetadataCache conversationMetadata) {
         this.conversationRepository = conversationRepository;
-        this.messageRepository = messageRepository;
+        this.conversationContext = conversationContext;
+        this.conversationMetadata = conversationMetadata;
     }
     
     /**
      * 查找用户的所有活跃会话
+     * 消息数和最后一条消息的预览由写入消息时维护，列表只需读取会话表
      */
     public List<ConversationDTO> findActiveConversations(Integer userId) {
         List<Conversation> conversations = conversationRepository.findByUserIdAndStatusOrderByUpdatedAtDesc(userId, 1);
         
-        return conversations.stream().map(conv -> {
-            ConversationDTO dto = convertToDTO(conv);
-            // 获取消息数量
-            Long messageCount = messageRepository.countByConversationId(conv.getId());
-            dto.setMessageCount(messageCount.intValue());
-            
-            // 获取最后一条消息作为预览
-            List<Message> messages = messageRepository.findByConversationIdOrderByCreatedAtAsc(conv.getId());
-            if (!messages.isEmpty()) {
-                Message lastMessage = messages.get(messages.size() - 1);
-                // 缩短显示
-                String preview = lastMessage.getContent();
-                if (preview.length() > 50) {
-                    preview = preview.substring(0, 47) + "...";
-                }
-                dto.setLastMessage(preview);
-            }
-            
-            return dto;
-        }).collect(Collectors.toList());
+        return conversations.stream().map(this::convertToDTO).collect(Collectors.toList());
+    }
+    
+    /**
+     * 会话列表中显示的消息预览，超过50个字符时截断
+     */
+    static String preview(String content) {
+        if (content == null || content.length() <= 50) {
+            return content;
+        }
+        return content.substring(0, 47) + "...";
     }
     
     /**
@@ -64,6 +58,8 @@ public class ConversationService {
         conversation.setStatus(1);
         
         Conversation saved = conversationRepository.save(conversation);
+        // 新会话接下来就会收发消息，预先放入元数据缓存
+        conversationMetadata.put(saved);
         return convertToDTO(saved);
     }
     
@@ -89,9 +85,10 @@ public class ConversationService {
             return null;
         }
         
+        // 会话已是托管实体，提交时由脏检查写回，无需save触发merge及其对messages的级联
         conversation.setTitle(title);
-        Conversation saved = conversationRepository.save(conversation);
-        return convertToDTO(saved);
+        conversationMetadata.invalidate(id);
+        return convertToDTO(conversation);
     }
     
     /**
@@ -99,13 +96,13 @@ public class ConversationService {
      */
     @Transactional
     public boolean archiveConversation(Integer id, Integer userId) {
-        Conversation conversation = conversationRepository.findByIdAndUserId(id, userId);
-        if (conversation == null) {
+        // 归属校验走元数据缓存，状态直接更新，不加载会话实体
+        if (!conversationMetadata.isOwner(id, userId)) {
             return false;
         }
         
-        conversation.setStatus(2);
-        conversationRepository.save(conversation);
+        conversationRepository.updateStatus(id, 2, LocalDateTime.now());
+        conversationMetadata.invalidate(id);
         return true;
     }
     
@@ -114,20 +111,21 @@ public class ConversationService {
      */
     @Transactional
     public boolean deleteConversation(Integer id, Integer userId) {
-        Conversation conversation = conversationRepository.findByIdAndUserId(id, userId);
-        if (conversation == null) {
+        if (!conversationMetadata.isOwner(id, userId)) {
             return false;
         }
         
-        conversation.setStatus(0);
-        conversationRepository.save(conversation);
+        conversationRepository.updateStatus(id, 0, LocalDateTime.now());
+        conversationMetadata.invalidate(id);
+        // 已删除的会话不再需要上下文
+        conversationContext.evict(id);
         return true;
     }
     
     /**
-     * 转换为DTO
+     * 转换为DTO（包内可见，供基准测试调用）
      */
-    private ConversationDTO convertToDTO(Conversation conversation) {
+    ConversationDTO convertToDTO(Conversation conversation) {
         ConversationDTO dto = new ConversationDTO();
         dto.setId(conversation.getId());
         dto.setUserId(conversation.getUserId());
@@ -135,6 +133,8 @@ public class ConversationService {
         dto.setCreatedAt(conversation.getCreatedAt());
         dto.setUpdatedAt(conversation.getUpdatedAt());
         dto.setStatus(conversation.getStatus());
+        dto.setMessageCount(conversation.getMessageCount());
+        dto.setLastMessage(conversation.getLastMessagePreview());
         return dto;
     }
 } 
\ No newline at end of file
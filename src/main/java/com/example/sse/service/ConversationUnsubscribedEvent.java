@@ -0,0 +1,17 @@
+package com.example.sse.service;
+
+/**
+ * 会话主题的最后一个SSE订阅者断开时发布的事件
+ */
+public class ConversationUnsubscribedEvent {
+
+    private final Integer conversationId;
+
+    public ConversationUnsubscribedEvent(Integer conversationId) {
+        this.conversationId = conversationId;
+    }
+
+    public Integer getConversationId() {
+        return conversationId;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.sse.service;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * 非流式生成结果缓存
+ * 按模型+提示词+参数缓存结果，带过期时间和容量上限；
+ * 相同请求并发到达时只向Ollama发起一次调用，其余请求等待同一结果
+ */
+@Component
+public class GenerationCache {
+
+    private final AsyncCache<String, String> cache;
+
+    public GenerationCache(@Value("${ollama.cache.ttl-ms:300000}") long ttlMillis,
+                           @Value("${ollama.cache.max-size:1000}") long maxSize) {
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMillis(ttlMillis))
+                .maximumSize(maxSize)
+                .buildAsync();
+    }
+
+    /**
+     * 获取缓存的生成结果，不存在时调用loader
+     * loader失败或返回空时不缓存，下次请求会重新调用
+     */
+    public Mono<String> get(String model, String prompt, Map<String, Object> options, Supplier<Mono<String>> loader) {
+        String key = key(model, prompt, options);
+        // thenApply得到每个订阅者独立的future，某个订阅者取消不会取消共享的调用
+        return Mono.fromFuture(() -> cache.get(key, (k, executor) -> loader.get().toFuture())
+                .thenApply(result -> result));
+    }
+
+    /**
+     * 当前缓存的条目数（估计值）
+     */
+    public long size() {
+        return cache.synchronous().estimatedSize();
+    }
+
+    private static String key(String model, String prompt, Map<String, Object> options) {
+        // 参数按键排序，保证相同参数得到相同的键
+        return model + '\u0000' + prompt + '\u0000' + (options == null ? "" : new TreeMap<>(options));
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.sse.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * 生成任务排队已满，请求被拒绝（返回429）
+ */
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class GenerationQueueFullException extends RuntimeException {
+
+    public GenerationQueueFullException() {
+        super("AI生成请求过多，请稍后再试");
+    }
+}
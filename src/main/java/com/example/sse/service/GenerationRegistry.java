@@ -0,0 +1,139 @@
+package com.example.sse.service;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+/**
+ * 进行中的生成任务登记表，按会话索引
+ * 用户点击停止或会话的所有订阅者断开时停止生成：上游到Ollama的请求被取消，
+ * 生成流正常结束，已生成的部分照常保存
+ */
+@Component
+public class GenerationRegistry implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(GenerationRegistry.class);
+
+    private final long graceMillis;
+    private final GenerationScheduler generationScheduler;
+    private final SseService sseService;
+    private final ReactiveSseService reactiveSseService;
+    private final ScheduledExecutorService timer;
+
+    // 会话ID -> 该会话进行中的生成
+    private final Map<Integer, Set<Generation>> generations = new ConcurrentHashMap<>();
+
+    @Autowired
+    public GenerationRegistry(@Value("${ollama.cancel.grace-ms:10000}") long graceMillis,
+                              GenerationScheduler generationScheduler, SseService sseService,
+                              ReactiveSseService reactiveSseService) {
+        this.graceMillis = graceMillis;
+        this.generationScheduler = generationScheduler;
+        this.sseService = sseService;
+        this.reactiveSseService = reactiveSseService;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "generation-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 单个进行中的生成
+     */
+    private static final class Generation {
+        private final Sinks.Empty<Void> stop = Sinks.empty();
+        private final boolean autoCancel;
+
+        private Generation(boolean autoCancel) {
+            this.autoCancel = autoCancel;
+        }
+    }
+
+    /**
+     * 登记一个生成流，被取消时流在当前位置正常结束
+     * @param autoCancel 结果经会话主题推送时为true，会话的订阅者全部断开后自动取消；
+     *                   直接以响应流返回的生成随请求断开而取消，不需要自动取消
+     */
+    public <T> Flux<T> cancellable(Integer conversationId, Flux<T> generation, boolean autoCancel) {
+        return Flux.defer(() -> {
+            Generation entry = new Generation(autoCancel);
+            // 在compute内加入，不会加入到刚被清空并移除的集合中
+            generations.compute(conversationId, (k, entries) -> {
+                if (entries == null) {
+                    entries = ConcurrentHashMap.newKeySet();
+                }
+                entries.add(entry);
+                return entries;
+            });
+            return generation
+                    .takeUntilOther(entry.stop.asMono())
+                    .doFinally(signal -> generations.computeIfPresent(conversationId, (k, entries) -> {
+                        entries.remove(entry);
+                        return entries.isEmpty() ? null : entries;
+                    }));
+        });
+    }
+
+    /**
+     * 取消会话所有进行中和排队中的生成
+     * @return 是否有生成被取消
+     */
+    public boolean cancel(Integer conversationId) {
+        return stop(conversationId, false);
+    }
+
+    /**
+     * 会话是否有进行中的生成
+     */
+    public boolean isGenerating(Integer conversationId) {
+        return generations.containsKey(conversationId);
+    }
+
+    /**
+     * 会话的订阅者全部断开后等待一段时间，期间没有重连则取消经主题推送的生成
+     */
+    @EventListener
+    public void onConversationUnsubscribed(ConversationUnsubscribedEvent event) {
+        Integer conversationId = event.getConversationId();
+        timer.schedule(() -> {
+            String topic = SseService.conversationTopic(conversationId);
+            if (sseService.getSubscriberCount(topic) + reactiveSseService.getSubscriberCount(topic) == 0
+                    && stop(conversationId, true)) {
+                log.info("会话 {} 已无订阅者，取消进行中的生成", conversationId);
+            }
+        }, graceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean stop(Integer conversationId, boolean autoOnly) {
+        boolean cancelled = generationScheduler.cancelQueued(conversationId) > 0;
+        Set<Generation> entries = generations.get(conversationId);
+        if (entries != null) {
+            for (Generation entry : entries) {
+                if (!autoOnly || entry.autoCancel) {
+                    cancelled |= entry.stop.tryEmitEmpty().isSuccess();
+                }
+            }
+        }
+        return cancelled;
+    }
+
+    @Override
+    public void destroy() {
+        timer.shutdownNow();
+    }
+}
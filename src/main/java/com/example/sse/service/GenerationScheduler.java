@@ -0,0 +1,395 @@
+package com.example.sse.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+/**
+ * Ollama生成任务调度器
+ * 限制同时进行的生成数量，超出的任务进入有界等待队列，按用户轮询出队保证公平；
+ * 排队中的任务通过SSE收到排队位置和预计等待时间，队列满时拒绝新任务；
+ * 需要在提交前保存数据的调用方先{@link #reserve()}预留名额，预留成功后提交不会再被拒绝
+ */
+@Component
+public class GenerationScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(GenerationScheduler.class);
+
+    // 排队位置更新事件名
+    public static final String QUEUE_EVENT = "排队中";
+
+    // 生成耗时的指数加权平均系数
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final SseService sseService;
+
+    private final Object lock = new Object();
+
+    // 用户 -> 该用户排队中的任务，按插入顺序轮询
+    private final LinkedHashMap<Integer, Deque<Job>> queues = new LinkedHashMap<>();
+    private int queued;
+    private int inFlight;
+    // 已预留、尚未提交的名额
+    private int reserved;
+    private double avgDurationMillis;
+
+    @Autowired
+    public GenerationScheduler(@Value("${ollama.scheduler.max-in-flight:4}") int maxInFlight,
+                               @Value("${ollama.scheduler.max-queued:64}") int maxQueued,
+                               @Value("${ollama.scheduler.initial-eta-ms:10000}") long initialEtaMillis,
+                               SseService sseService, MeterRegistry meterRegistry) {
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.avgDurationMillis = initialEtaMillis;
+        this.sseService = sseService;
+        Gauge.builder("ollama.scheduler.queued", this, GenerationScheduler::getQueuedCount)
+                .description("排队等待生成的任务数")
+                .register(meterRegistry);
+        Gauge.builder("ollama.scheduler.in.flight", this, GenerationScheduler::getInFlightCount)
+                .description("正在进行的生成数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 单个生成任务
+     */
+    private final class Job {
+        private final Integer userId;
+        private final Integer conversationId;
+        private final Consumer<Runnable> task;
+        // 排队中被cancelQueued移除时的回调，为null时不会被cancelQueued移除
+        private final Runnable onDropped;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile boolean cancelled;
+        private long startedAt;
+
+        private Job(Integer userId, Integer conversationId, Consumer<Runnable> task, Runnable onDropped) {
+            this.userId = userId;
+            this.conversationId = conversationId;
+            this.task = task;
+            this.onDropped = onDropped;
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                finish(this);
+            }
+        }
+    }
+
+    /**
+     * 预留的名额，提交一次后失效
+     */
+    public final class Reservation {
+        private final AtomicBoolean used = new AtomicBoolean();
+
+        private Reservation() {
+        }
+
+        /**
+         * 以预留的名额提交生成任务，不会因队列已满被拒绝
+         * @see GenerationScheduler#submit(Integer, Integer, Consumer, Runnable)
+         */
+        public void submit(Integer userId, Integer conversationId, Consumer<Runnable> task, Runnable onDropped) {
+            take();
+            enqueue(new Job(userId, conversationId, task, onDropped), true);
+        }
+
+        /**
+         * 以预留的名额执行响应式生成流，订阅时入队，不会因队列已满被拒绝
+         * @see GenerationScheduler#schedule(Integer, Integer, Flux)
+         */
+        public <T> Flux<T> schedule(Integer userId, Integer conversationId, Flux<T> work) {
+            return GenerationScheduler.this.schedule(userId, conversationId, work, this);
+        }
+
+        /**
+         * 放弃未使用的预留，例如保存用户消息失败时
+         */
+        public void cancel() {
+            if (used.compareAndSet(false, true)) {
+                synchronized (lock) {
+                    reserved--;
+                }
+            }
+        }
+
+        private void take() {
+            if (!used.compareAndSet(false, true)) {
+                throw new IllegalStateException("预留的名额已使用");
+            }
+        }
+    }
+
+    /**
+     * 是否已无法再接收新任务
+     */
+    public boolean isSaturated() {
+        synchronized (lock) {
+            return isFull();
+        }
+    }
+
+    /**
+     * 进行中、排队中和已预留的任务占满全部名额，调用方需持有lock
+     */
+    private boolean isFull() {
+        return inFlight + queued + reserved >= maxInFlight + maxQueued;
+    }
+
+    /**
+     * 原子地检查并预留一个名额
+     * @return 队列已满时返回null
+     */
+    public Reservation reserve() {
+        synchronized (lock) {
+            if (isFull()) {
+                log.warn("生成队列已满，拒绝预留名额");
+                return null;
+            }
+            reserved++;
+        }
+        return new Reservation();
+    }
+
+    /**
+     * 提交生成任务
+     * @param task 开始生成时调用，参数是生成结束（成功、失败或取消）后必须调用的释放回调
+     * @return 队列已满被拒绝时返回false
+     */
+    public boolean submit(Integer userId, Integer conversationId, Consumer<Runnable> task) {
+        return enqueue(new Job(userId, conversationId, task, null), false);
+    }
+
+    /**
+     * 提交可在排队中被取消的生成任务
+     * @param onDropped 任务还在排队时被{@link #cancelQueued(Integer)}移除的回调
+     * @return 队列已满被拒绝时返回false
+     */
+    public boolean submit(Integer userId, Integer conversationId, Consumer<Runnable> task, Runnable onDropped) {
+        return enqueue(new Job(userId, conversationId, task, onDropped), false);
+    }
+
+    /**
+     * 移除会话排队中的、以submit提交的任务（schedule的任务随订阅取消而移除）
+     * @return 移除的任务数
+     */
+    public int cancelQueued(Integer conversationId) {
+        List<Job> dropped = new ArrayList<>();
+        synchronized (lock) {
+            Iterator<Deque<Job>> userQueues = queues.values().iterator();
+            while (userQueues.hasNext()) {
+                Deque<Job> userQueue = userQueues.next();
+                userQueue.removeIf(job -> {
+                    if (job.onDropped != null && job.conversationId.equals(conversationId)) {
+                        dropped.add(job);
+                        return true;
+                    }
+                    return false;
+                });
+                if (userQueue.isEmpty()) {
+                    userQueues.remove();
+                }
+            }
+            queued -= dropped.size();
+        }
+        for (Job job : dropped) {
+            job.cancelled = true;
+            job.onDropped.run();
+        }
+        if (!dropped.isEmpty()) {
+            notifyPositions();
+        }
+        return dropped.size();
+    }
+
+    /**
+     * 以调度器排队的方式执行一个响应式生成流
+     * 轮到该任务时才订阅work，流结束或客户端取消时释放名额；队列满时以GenerationQueueFullException结束
+     */
+    public <T> Flux<T> schedule(Integer userId, Integer conversationId, Flux<T> work) {
+        return schedule(userId, conversationId, work, null);
+    }
+
+    private <T> Flux<T> schedule(Integer userId, Integer conversationId, Flux<T> work, Reservation reservation) {
+        return Flux.defer(() -> {
+            Sinks.One<Runnable> admitted = Sinks.one();
+            Job job = new Job(userId, conversationId, admitted::tryEmitValue, null);
+            if (reservation != null) {
+                reservation.take();
+            }
+            if (!enqueue(job, reservation != null)) {
+                return Flux.error(new GenerationQueueFullException());
+            }
+            return admitted.asMono()
+                    .flatMapMany(release -> work.doFinally(signal -> release.run()))
+                    .doOnCancel(() -> cancel(job));
+        });
+    }
+
+    /**
+     * @param reservedSlot 使用已预留的名额，不检查队列是否已满
+     */
+    private boolean enqueue(Job job, boolean reservedSlot) {
+        List<Job> toStart;
+        synchronized (lock) {
+            if (reservedSlot) {
+                reserved--;
+            } else if (isFull()) {
+                log.warn("生成队列已满，拒绝会话 {} 的请求", job.conversationId);
+                return false;
+            }
+            queues.computeIfAbsent(job.userId, k -> new ArrayDeque<>()).addLast(job);
+            queued++;
+            toStart = pollStartable();
+        }
+        start(toStart);
+        notifyPositions();
+        return true;
+    }
+
+    private void cancel(Job job) {
+        job.cancelled = true;
+        // 已开始的任务由释放回调结束；未开始的任务从队列中移除
+        boolean removed;
+        synchronized (lock) {
+            Deque<Job> userQueue = queues.get(job.userId);
+            removed = userQueue != null && userQueue.remove(job);
+            if (removed) {
+                queued--;
+                if (userQueue.isEmpty()) {
+                    queues.remove(job.userId);
+                }
+            }
+        }
+        if (removed) {
+            notifyPositions();
+        } else {
+            job.release();
+        }
+    }
+
+    private void finish(Job job) {
+        List<Job> toStart;
+        synchronized (lock) {
+            inFlight--;
+            if (job.startedAt > 0) {
+                long duration = System.currentTimeMillis() - job.startedAt;
+                avgDurationMillis = EWMA_ALPHA * duration + (1 - EWMA_ALPHA) * avgDurationMillis;
+            }
+            toStart = pollStartable();
+        }
+        start(toStart);
+        notifyPositions();
+    }
+
+    /**
+     * 在有空闲名额时按用户轮询取出任务，调用方需持有lock
+     */
+    private List<Job> pollStartable() {
+        List<Job> toStart = new ArrayList<>();
+        while (inFlight < maxInFlight && !queues.isEmpty()) {
+            Iterator<Map.Entry<Integer, Deque<Job>>> it = queues.entrySet().iterator();
+            Map.Entry<Integer, Deque<Job>> entry = it.next();
+            Job job = entry.getValue().pollFirst();
+            it.remove();
+            // 该用户还有任务时移到队尾，轮到其它用户
+            if (!entry.getValue().isEmpty()) {
+                queues.put(entry.getKey(), entry.getValue());
+            }
+            queued--;
+            inFlight++;
+            job.startedAt = System.currentTimeMillis();
+            toStart.add(job);
+        }
+        return toStart;
+    }
+
+    private void start(List<Job> jobs) {
+        for (Job job : jobs) {
+            if (job.cancelled) {
+                job.release();
+                continue;
+            }
+            try {
+                job.task.accept(job::release);
+            } catch (RuntimeException e) {
+                log.error("启动会话 {} 的生成任务失败", job.conversationId, e);
+                job.release();
+            }
+        }
+    }
+
+    /**
+     * 按轮询出队顺序计算每个排队任务的位置，并推送位置和预计等待时间
+     */
+    private void notifyPositions() {
+        List<Job> order = new ArrayList<>();
+        double eta;
+        synchronized (lock) {
+            if (queued == 0) {
+                return;
+            }
+            List<Iterator<Job>> cursors = new ArrayList<>();
+            queues.values().forEach(userQueue -> cursors.add(userQueue.iterator()));
+            boolean more = true;
+            while (more) {
+                more = false;
+                for (Iterator<Job> cursor : cursors) {
+                    if (cursor.hasNext()) {
+                        order.add(cursor.next());
+                        more = true;
+                    }
+                }
+            }
+            eta = avgDurationMillis;
+        }
+        for (int i = 0; i < order.size(); i++) {
+            Job job = order.get(i);
+            int position = i + 1;
+            long etaSeconds = (long) Math.ceil((double) position / maxInFlight * eta / 1000);
+            sseService.sendToTopic(SseService.conversationTopic(job.conversationId), QUEUE_EVENT, Map.of(
+                "conversationId", job.conversationId,
+                "position", position,
+                "etaSeconds", etaSeconds
+            ));
+        }
+    }
+
+    /**
+     * 当前正在进行的生成数
+     */
+    public int getInFlightCount() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    /**
+     * 当前排队中的任务数
+     */
+    public int getQueuedCount() {
+        synchronized (lock) {
+            return queued;
+        }
+    }
+}
@@ -1,40 +1,67 @@
 package com.example.sse.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.example.sse.dto.MessageDTO;
-import com.example.sse.model.Conversation;
 import com.example.sse.model.Message;
 import com.example.sse.repository.ConversationRepository;
 import com.example.sse.repository.MessageRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
-import java.time.LocalDateTime;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class MessageService {
 
+    // 分页查询单页最大条数
+    public static final int MAX_PAGE_SIZE = 200;
+    
+    // 导出时每写出多少条刷新一次输出流
+    private static final int EXPORT_FLUSH_EVERY = 500;
+
     private final SseService sseService;
     private final OllamaService ollamaService;
     private final MessageRepository messageRepository;
     private final ConversationRepository conversationRepository;
+    private final ConversationContext conversationContext;
+    private final MessageWriter messageWriter;
+    private final ConversationMetadataCache conversationMetadata;
+    private final ObjectMapper objectMapper;
     
     @Autowired
     public MessageService(SseService sseService, OllamaService ollamaService, 
                           MessageRepository messageRepository, 
-                          ConversationRepository conversationRepository) {
+                          ConversationRepository conversationRepository,
+                          ConversationContext conversationContext,
+                          MessageWriter messageWriter, ConversationMetadataCache conversationMetadata,
+                          ObjectMapper objectMapper) {
         this.sseService = sseService;
         this.ollamaService = ollamaService;
         this.messageRepository = messageRepository;
         this.conversationRepository = conversationRepository;
+        this.conversationContext = conversationContext;
+        this.messageWriter = messageWriter;
+        this.conversationMetadata = conversationMetadata;
+        this.objectMapper = objectMapper;
     }
 
     /**
@@ -43,8 +70,7 @@ public class MessageService {
     @Transactional(readOnly = true)
     public List<MessageDTO> getMessagesForConversation(Integer conversationId, Integer userId) {
         // 验证会话是否存在且属于该用户
-        Optional<Conversation> conversation = conversationRepository.findById(conversationId);
-        if (conversation.isEmpty() || !conversation.get().getUserId().equals(userId)) {
+        if (!conversationMetadata.isOwner(conversationId, userId)) {
             return new ArrayList<>();
         }
         
@@ -56,58 +82,119 @@ public class MessageService {
     }
 
     /**
-     * 处理用户消息（旧方法，保留兼容性）
+     * 会话是否存在且属于该用户
      */
-    public void processUserMessage(String message, String sessionId) {
-        // 使用Ollama生成回复
-        String aiResponse = ollamaService.generateResponse(message);
+    public boolean isOwner(Integer conversationId, Integer userId) {
+        return conversationMetadata.isOwner(conversationId, userId);
+    }
+
+    /**
+     * 以NDJSON格式导出消息，每行一条，边查询边写出
+     * 数据库游标逐行读取，查询结果直接映射为DTO不进入持久化上下文，内存占用与消息总数无关
+     * @param conversationId 指定时导出该会话，为空时导出用户所有未删除会话的消息；调用方需先校验归属
+     */
+    @Transactional(readOnly = true)
+    public void exportMessages(Integer userId, Integer conversationId, OutputStream out) throws IOException {
+        try (Stream<MessageDTO> messages = conversationId == null
+                     ? messageRepository.streamByUserId(userId)
+                     : messageRepository.streamByConversationId(conversationId);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            // 行之间只用换行分隔（不写默认的空格分隔符），也不在每行后刷出
+            generator.setRootValueSeparator(null);
+            ObjectWriter writer = objectMapper.writerFor(MessageDTO.class)
+                    .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            Iterator<MessageDTO> it = messages.iterator();
+            int written = 0;
+            while (it.hasNext()) {
+                writer.writeValue(generator, it.next());
+                generator.writeRaw('\n');
+                // 定期刷出，客户端可以边下载边处理
+                if (++written % EXPORT_FLUSH_EVERY == 0) {
+                    generator.flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * 分页获取会话消息，以消息ID为游标
+     * 不指定游标时返回最新的一页；指定before时返回更早的一页，指定after时返回更新的一页；
+     * 每页按时间正序排列，返回条数小于limit表示该方向已没有更多消息
+     */
+    @Transactional(readOnly = true)
+    public List<MessageDTO> getMessagesPage(Integer conversationId, Integer userId,
+                                            Integer before, Integer after, int limit) {
+        // 验证会话是否存在且属于该用户
+        if (!conversationMetadata.isOwner(conversationId, userId)) {
+            return new ArrayList<>();
+        }
         
-        // 通知所有客户端有新的AI回复
-        Map<String, Object> aiMessage = new HashMap<>();
-        aiMessage.put("id", UUID.randomUUID().toString());
-        aiMessage.put("content", aiResponse);
-        aiMessage.put("role", "assistant");
-        aiMessage.put("timestamp", System.currentTimeMillis());
+        PageRequest page = PageRequest.of(0, Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+        List<Message> messages;
+        if (after != null) {
+            messages = messageRepository.findCreatedAt(conversationId, after)
+                    .map(createdAt -> messageRepository.findPageAfter(conversationId, createdAt, after, page))
+                    .orElseGet(ArrayList::new);
+        } else {
+            messages = before == null
+                    ? messageRepository.findByConversationIdOrderByCreatedAtDescIdDesc(conversationId, page)
+                    : messageRepository.findCreatedAt(conversationId, before)
+                            .map(createdAt -> messageRepository.findPageBefore(conversationId, createdAt, before, page))
+                            .orElseGet(ArrayList::new);
+            // 按时间倒序查出，返回前转为正序
+            messages = new ArrayList<>(messages);
+            Collections.reverse(messages);
+        }
         
-        sseService.sendToAll("newMessage", aiMessage);
+        return messages.stream().map(this::convertToDTO).collect(Collectors.toList());
+    }
+
+    /**
+     * 处理用户消息（旧方法，保留兼容性）
+     * 异步生成回复，调用线程不等待生成结束
+     * @return 回复推送完成时结束
+     */
+    public CompletableFuture<Void> processUserMessage(String message, String sessionId) {
+        // 使用Ollama生成回复
+        return ollamaService.generateResponseAsync(message)
+                .doOnNext(aiResponse -> {
+                    // 通知所有客户端有新的AI回复
+                    Map<String, Object> aiMessage = new HashMap<>();
+                    aiMessage.put("id", UUID.randomUUID().toString());
+                    aiMessage.put("content", aiResponse);
+                    aiMessage.put("role", "assistant");
+                    aiMessage.put("timestamp", System.currentTimeMillis());
+                    
+                    sseService.sendToAll("newMessage", aiMessage);
+                })
+                .then()
+                .toFuture();
     }
 
     /**
      * 添加用户消息
+     * 经写入管道与同一时间段的其它消息合并提交，返回时消息已持久化
      */
-    @Transactional
     public MessageDTO addUserMessage(Integer conversationId, Integer userId, String content) {
         // 验证参数
         if (conversationId == null || userId == null || content == null || content.trim().isEmpty()) {
             throw new IllegalArgumentException("Invalid parameters");
         }
         
-        // 查找会话
-        Optional<Conversation> optionalConversation = conversationRepository.findById(conversationId);
-        if (optionalConversation.isEmpty()) {
+        // 会话校验命中元数据缓存时不查询数据库
+        if (!conversationMetadata.exists(conversationId)) {
             throw new IllegalArgumentException("Conversation not found");
         }
         
-        Conversation conversation = optionalConversation.get();
-        
-        // 创建并保存消息实体
-        Message message = new Message();
-        message.setConversation(conversation);
-        message.setSenderType(Message.SENDER_USER);
-        message.setContent(content);
-        message.setCreatedAt(LocalDateTime.now());
-        
-        Message savedMessage = messageRepository.save(message);
-        
-        // 更新会话最后更新时间
-        conversation.setUpdatedAt(LocalDateTime.now());
-        conversationRepository.save(conversation);
+        // 保存消息并更新会话最后更新时间；缓存之后才删除的会话由外键约束拒绝
+        MessageDTO messageDTO = await(messageWriter.insert(conversationId, Message.SENDER_USER, content,
+                Message.STATUS_COMPLETE));
         
-        // 转换为DTO
-        MessageDTO messageDTO = convertToDTO(savedMessage);
+        // 追加到会话上下文，后续生成时作为历史
+        conversationContext.record(conversationId, messageDTO.getSenderType(), messageDTO.getContent());
         
-        // 通知所有客户端有新消息
-        sseService.sendToAll("新消息", messageDTO);
+        // 通知订阅该会话的客户端有新消息
+        sseService.sendMessageNotification(messageDTO);
         
         return messageDTO;
     }
@@ -115,53 +202,123 @@ public class MessageService {
     /**
      * 添加AI回复
      */
-    @Transactional
     public MessageDTO addAiResponse(Integer conversationId, String content) {
+        return addAiResponse(conversationId, content, false);
+    }
+
+    /**
+     * 添加AI回复
+     * @param interrupted 生成出错或被停止，消息标记为中断，不进入会话上下文
+     */
+    public MessageDTO addAiResponse(Integer conversationId, String content, boolean interrupted) {
         // 验证参数
         if (conversationId == null || content == null || content.trim().isEmpty()) {
             throw new IllegalArgumentException("Invalid parameters");
         }
-        
-        // 查找会话
-        Optional<Conversation> optionalConversation = conversationRepository.findById(conversationId);
-        if (optionalConversation.isEmpty()) {
+        if (!conversationMetadata.exists(conversationId)) {
             throw new IllegalArgumentException("Conversation not found");
         }
         
-        Conversation conversation = optionalConversation.get();
+        MessageDTO messageDTO = await(messageWriter.insert(conversationId, Message.SENDER_AI, content,
+                interrupted ? Message.STATUS_INTERRUPTED : Message.STATUS_COMPLETE));
         
-        // 创建并保存消息实体
-        Message message = new Message();
-        message.setConversation(conversation);
-        message.setSenderType(Message.SENDER_AI);
-        message.setContent(content);
-        message.setCreatedAt(LocalDateTime.now());
+        // 完整的回复追加到会话上下文，后续生成时作为历史
+        if (!interrupted) {
+            conversationContext.record(conversationId, messageDTO.getSenderType(), messageDTO.getContent());
+        }
         
-        Message savedMessage = messageRepository.save(message);
+        // 通知订阅该会话的客户端有新的AI消息
+        sseService.sendToTopic(SseService.conversationTopic(conversationId), "AI响应", messageDTO);
         
-        // 更新会话最后更新时间
-        conversation.setUpdatedAt(LocalDateTime.now());
-        conversationRepository.save(conversation);
+        return messageDTO;
+    }
+    
+    /**
+     * 开始一条AI回复：创建内容为空、状态为生成中的消息，后续由检查点写入内容
+     */
+    public MessageDTO startAiResponse(Integer conversationId) {
+        return await(messageWriter.insert(conversationId, Message.SENDER_AI, "", Message.STATUS_GENERATING));
+    }
+    
+    /**
+     * 等待写入管道的持久化确认
+     */
+    private static MessageDTO await(CompletableFuture<MessageDTO> written) {
+        try {
+            return written.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof DataIntegrityViolationException) {
+                throw new IllegalArgumentException("Conversation not found", e.getCause());
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * 写入生成中的AI回复的当前内容
+     */
+    @Transactional
+    public void checkpointAiResponse(Integer messageId, String content) {
+        messageRepository.updateContent(messageId, content);
+    }
+    
+    /**
+     * 结束AI回复并通知订阅该会话的客户端
+     * @param started startAiResponse返回的消息
+     * @param content 最终内容
+     * @param contentSaved 最终内容是否已由检查点写入，是则只修改状态
+     * @param interrupted 生成出错或被停止，消息标记为中断，不进入会话上下文
+     */
+    @Transactional
+    public MessageDTO completeAiResponse(MessageDTO started, String content, boolean contentSaved,
+                                         boolean interrupted) {
+        int status = interrupted ? Message.STATUS_INTERRUPTED : Message.STATUS_COMPLETE;
+        if (contentSaved) {
+            messageRepository.updateStatus(started.getId(), status);
+        } else {
+            messageRepository.updateContentAndStatus(started.getId(), content, status);
+        }
+        conversationRepository.updateLastMessagePreview(started.getConversationId(), ConversationService.preview(content));
+        if (!interrupted) {
+            conversationContext.record(started.getConversationId(), Message.SENDER_AI, content);
+        }
         
-        // 转换为DTO
-        MessageDTO messageDTO = convertToDTO(savedMessage);
+        MessageDTO messageDTO = new MessageDTO();
+        messageDTO.setId(started.getId());
+        messageDTO.setConversationId(started.getConversationId());
+        messageDTO.setSenderType(Message.SENDER_AI);
+        messageDTO.setContent(content);
+        messageDTO.setCreatedAt(started.getCreatedAt());
+        messageDTO.setStatus(status);
         
-        // 通知所有客户端有新的AI消息
-        sseService.sendToAll("AI响应", messageDTO);
+        sseService.sendToTopic(SseService.conversationTopic(started.getConversationId()), "AI响应", messageDTO);
         
         return messageDTO;
     }
     
     /**
-     * 将消息实体转换为DTO
+     * 删除没有产生任何内容的AI回复
+     */
+    @Transactional
+    public void discardAiResponse(MessageDTO started) {
+        messageRepository.deleteById(started.getId());
+        conversationRepository.decrementMessageCount(started.getConversationId());
+    }
+    
+    /**
+     * 将消息实体转换为DTO（包内可见，供基准测试调用）
      */
-    private MessageDTO convertToDTO(Message message) {
+    MessageDTO convertToDTO(Message message) {
         MessageDTO dto = new MessageDTO();
         dto.setId(message.getId());
         dto.setConversationId(message.getConversation().getId());
         dto.setContent(message.getContent());
         dto.setSenderType(message.getSenderType());
         dto.setCreatedAt(message.getCreatedAt());
+        dto.setStatus(message.getStatus());
         return dto;
     }
 }
\ No newline at end of file
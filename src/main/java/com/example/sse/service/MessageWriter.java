@@ -0,0 +1,285 @@
+package com.example.sse.service;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.sse.dto.MessageDTO;
+import com.example.sse.model.Message;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * 消息写入管道
+ * 消息插入先进入队列，由写线程把同一时间段内的插入合并成一个JDBC批量插入，
+ * 涉及的会话updated_at合并为一条UPDATE，在同一个事务中提交；
+ * 消息ID为自增主键，Hibernate无法批量插入，因此这里直接使用JDBC
+ * 每条插入返回的future在所在批次提交后完成，作为持久化确认
+ */
+@Component
+public class MessageWriter implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageWriter.class);
+
+    private static final String INSERT_SQL = "INSERT INTO messages "
+            + "(conversation_id, sender_type, content, created_at, status) VALUES (?, ?, ?, ?, ?)";
+
+    // 同时维护会话列表使用的消息数、最后消息时间和预览；预览为null时保留原值
+    private static final String TOUCH_SQL = "UPDATE conversations SET updated_at = ?, "
+            + "message_count = message_count + ?, last_message_at = ?, "
+            + "last_message_preview = COALESCE(?, last_message_preview) WHERE id = ?";
+
+    private final int maxBatch;
+    private final long lingerMillis;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final BlockingQueue<PendingMessage> queue;
+    private final Thread writerThread;
+
+    // 批次提交耗时、批次大小，以及单条消息从提交到持久化确认的耗时
+    private final Timer batchTimer;
+    private final DistributionSummary batchSize;
+    private final Timer latencyTimer;
+
+    private volatile boolean running = true;
+
+    @Autowired
+    public MessageWriter(@Value("${message.write.queue-capacity:10000}") int queueCapacity,
+                         @Value("${message.write.max-batch:500}") int maxBatch,
+                         @Value("${message.write.linger-ms:5}") long lingerMillis,
+                         JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                         MeterRegistry meterRegistry) {
+        this.maxBatch = maxBatch;
+        this.lingerMillis = lingerMillis;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchTimer = Timer.builder("message.write.batch")
+                .description("一个批次的插入和会话更新在事务中提交的耗时")
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("message.write.batch.size")
+                .description("每个批次写入的消息数")
+                .register(meterRegistry);
+        this.latencyTimer = Timer.builder("message.write.latency")
+                .description("消息从提交写入到持久化确认的耗时，包括排队时间")
+                .register(meterRegistry);
+        Gauge.builder("message.write.queue", queue, BlockingQueue::size)
+                .description("排队等待写入的消息数")
+                .register(meterRegistry);
+        this.writerThread = new Thread(this::run, "message-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * 待写入的消息
+     */
+    private static final class PendingMessage {
+        private final Integer conversationId;
+        private final int senderType;
+        private final String content;
+        private final int status;
+        private final LocalDateTime createdAt = LocalDateTime.now();
+        private final long submittedAt = System.nanoTime();
+        private final CompletableFuture<MessageDTO> written = new CompletableFuture<>();
+
+        private PendingMessage(Integer conversationId, int senderType, String content, int status) {
+            this.conversationId = conversationId;
+            this.senderType = senderType;
+            this.content = content;
+            this.status = status;
+        }
+
+        private MessageDTO toDTO(Integer id) {
+            MessageDTO dto = new MessageDTO();
+            dto.setId(id);
+            dto.setConversationId(conversationId);
+            dto.setSenderType(senderType);
+            dto.setContent(content);
+            dto.setCreatedAt(createdAt);
+            dto.setStatus(status);
+            return dto;
+        }
+    }
+
+    /**
+     * 提交一条消息插入，并把所属会话的updated_at更新为当前时间
+     * 队列满时阻塞，直到写线程腾出空间
+     * @return 所在批次提交后完成，值为带ID的消息
+     */
+    public CompletableFuture<MessageDTO> insert(Integer conversationId, int senderType, String content, int status) {
+        PendingMessage message = new PendingMessage(conversationId, senderType, content, status);
+        if (!running) {
+            message.written.completeExceptionally(new IllegalStateException("消息写入管道已关闭"));
+            return message.written;
+        }
+        try {
+            queue.put(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            message.written.completeExceptionally(e);
+        }
+        return message.written;
+    }
+
+    /**
+     * 当前排队等待写入的消息数
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private void run() {
+        List<PendingMessage> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // 稍等片刻收集同一时间段内的其它插入
+                if (lingerMillis > 0 && queue.size() < maxBatch - 1) {
+                    Thread.sleep(lingerMillis);
+                }
+                queue.drainTo(batch, maxBatch - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                // 被中断时写完已取出的和剩余的消息后退出
+                running = false;
+                queue.drainTo(batch);
+                write(batch);
+            } catch (RuntimeException e) {
+                log.error("消息写入线程异常", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 批量写入，失败时逐条重试，单条消息的问题（如会话不存在）不影响同批的其它消息
+     */
+    private void write(List<PendingMessage> batch) {
+        try {
+            long start = System.nanoTime();
+            List<Integer> ids = insertBatch(batch);
+            long now = System.nanoTime();
+            batchTimer.record(now - start, TimeUnit.NANOSECONDS);
+            batchSize.record(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                PendingMessage message = batch.get(i);
+                latencyTimer.record(now - message.submittedAt, TimeUnit.NANOSECONDS);
+                message.written.complete(message.toDTO(ids.get(i)));
+            }
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.get(0).written.completeExceptionally(e);
+                return;
+            }
+            log.warn("批量写入 {} 条消息失败，改为逐条写入: {}", batch.size(), e.getMessage());
+            for (PendingMessage message : batch) {
+                write(List.of(message));
+            }
+        }
+    }
+
+    private List<Integer> insertBatch(List<PendingMessage> batch) {
+        return transactionTemplate.execute(status -> {
+            List<Integer> ids = jdbcTemplate.execute((ConnectionCallback<List<Integer>>) connection -> {
+                try (PreparedStatement ps = connection.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+                    for (PendingMessage message : batch) {
+                        ps.setInt(1, message.conversationId);
+                        ps.setInt(2, message.senderType);
+                        ps.setString(3, message.content);
+                        ps.setTimestamp(4, Timestamp.valueOf(message.createdAt));
+                        ps.setInt(5, message.status);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                    List<Integer> keys = new ArrayList<>(batch.size());
+                    try (ResultSet rs = ps.getGeneratedKeys()) {
+                        while (rs.next()) {
+                            keys.add(rs.getInt(1));
+                        }
+                    }
+                    return keys;
+                }
+            });
+            if (ids == null || ids.size() != batch.size()) {
+                throw new IllegalStateException("批量插入返回的主键数量与消息数不一致");
+            }
+            touchConversations(batch);
+            return ids;
+        });
+    }
+
+    /**
+     * 同一批次涉及的每个会话只更新一次，所有会话的更新作为一个JDBC批次执行
+     */
+    private void touchConversations(List<PendingMessage> batch) {
+        Map<Integer, ConversationTouch> touches = new LinkedHashMap<>();
+        for (PendingMessage message : batch) {
+            touches.computeIfAbsent(message.conversationId, ConversationTouch::new).add(message);
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> args = new ArrayList<>(touches.size());
+        for (ConversationTouch touch : touches.values()) {
+            args.add(new Object[] {now, touch.count, Timestamp.valueOf(touch.lastAt), touch.preview, touch.conversationId});
+        }
+        jdbcTemplate.batchUpdate(TOUCH_SQL, args);
+    }
+
+    /**
+     * 一个批次中单个会话的汇总
+     */
+    private static final class ConversationTouch {
+        private final Integer conversationId;
+        private int count;
+        private LocalDateTime lastAt;
+        private String preview;
+
+        private ConversationTouch(Integer conversationId) {
+            this.conversationId = conversationId;
+        }
+
+        private void add(PendingMessage message) {
+            count++;
+            lastAt = message.createdAt;
+            // 生成中的回复还没有内容，预览在完成时更新
+            if (message.status != Message.STATUS_GENERATING) {
+                preview = ConversationService.preview(message.content);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        // 停止接收新消息，写完队列中剩余的消息
+        running = false;
+        writerThread.join(TimeUnit.SECONDS.toMillis(10));
+    }
+}
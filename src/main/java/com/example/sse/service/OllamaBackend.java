@@ -0,0 +1,104 @@
+package com.example.sse.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.web.reactive.function.client.WebClient;
+
+/**
+ * 单个Ollama服务节点：记录进行中的请求数、延迟的指数加权平均和健康状态
+ * 流式请求和非流式请求使用不同超时的WebClient：非流式请求要等生成结束才返回响应头
+ */
+public class OllamaBackend {
+
+    // 延迟的指数加权平均系数
+    private static final double EWMA_ALPHA = 0.3;
+
+    private final String baseUrl;
+    private final WebClient webClient;
+    private final WebClient callClient;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private volatile boolean healthy = true;
+    private volatile double ewmaLatencyMillis;
+
+    public OllamaBackend(String baseUrl, WebClient webClient) {
+        this(baseUrl, webClient, webClient);
+    }
+
+    /**
+     * @param webClient 流式请求和探活使用的客户端
+     * @param callClient 非流式请求使用的客户端，超时需覆盖完整的生成时间
+     */
+    public OllamaBackend(String baseUrl, WebClient webClient, WebClient callClient) {
+        this.baseUrl = baseUrl;
+        this.webClient = webClient;
+        this.callClient = callClient;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public WebClient getWebClient() {
+        return webClient;
+    }
+
+    public WebClient getCallClient() {
+        return callClient;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    public double getEwmaLatencyMillis() {
+        return ewmaLatencyMillis;
+    }
+
+    int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    void acquire() {
+        inFlight.incrementAndGet();
+    }
+
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * 记录一次成功请求的延迟（流式请求为首块延迟）
+     */
+    synchronized void recordLatency(long latencyMillis) {
+        ewmaLatencyMillis = ewmaLatencyMillis == 0
+                ? latencyMillis
+                : EWMA_ALPHA * latencyMillis + (1 - EWMA_ALPHA) * ewmaLatencyMillis;
+    }
+
+    /**
+     * 记录一次失败，返回连续失败次数
+     */
+    int recordFailure() {
+        return consecutiveFailures.incrementAndGet();
+    }
+
+    void markHealthy() {
+        consecutiveFailures.set(0);
+        healthy = true;
+    }
+
+    void markUnhealthy() {
+        healthy = false;
+    }
+
+    @Override
+    public String toString() {
+        return baseUrl;
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.sse.service;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Ollama节点池
+ * 请求路由到健康节点中进行中请求最少的一个（相同时选延迟较低的），
+ * 连续失败的节点被摘除，定期探活（GET /api/tags）成功后重新加入；
+ * 带亲和键的请求固定到同一节点，使节点上已缓存的提示词前缀可以复用
+ */
+public class OllamaBackendPool {
+
+    private static final Logger log = LoggerFactory.getLogger(OllamaBackendPool.class);
+
+    private static final Comparator<OllamaBackend> LEAST_LOADED = Comparator
+            .comparingInt(OllamaBackend::getInFlight)
+            .thenComparingDouble(OllamaBackend::getEwmaLatencyMillis);
+
+    private final List<OllamaBackend> backends;
+    private final int failureThreshold;
+    private final Duration probeTimeout;
+
+    // 亲和键（如会话ID）-> 固定的节点，长时间未使用的绑定被淘汰
+    private final Cache<Object, OllamaBackend> affinity;
+
+    public OllamaBackendPool(List<OllamaBackend> backends, int failureThreshold, Duration probeTimeout) {
+        this(backends, failureThreshold, probeTimeout, 10000, Duration.ofMinutes(30));
+    }
+
+    public OllamaBackendPool(List<OllamaBackend> backends, int failureThreshold, Duration probeTimeout,
+                             long maxAffinities, Duration affinityIdle) {
+        if (backends.isEmpty()) {
+            throw new IllegalArgumentException("至少需要配置一个Ollama节点");
+        }
+        this.backends = List.copyOf(backends);
+        this.failureThreshold = failureThreshold;
+        this.probeTimeout = probeTimeout;
+        this.affinity = Caffeine.newBuilder()
+                .maximumSize(maxAffinities)
+                .expireAfterAccess(affinityIdle)
+                .build();
+    }
+
+    /**
+     * 选择负载最低的健康节点，所有节点都不健康时退化为在全部节点中选择
+     */
+    public OllamaBackend choose() {
+        return backends.stream()
+                .filter(OllamaBackend::isHealthy)
+                .min(LEAST_LOADED)
+                .orElseGet(() -> backends.stream().min(LEAST_LOADED).orElseThrow());
+    }
+
+    /**
+     * 选择亲和键固定的节点；尚未固定或固定的节点已被摘除时重新选择并固定
+     */
+    public OllamaBackend choose(Object affinityKey) {
+        OllamaBackend pinned = affinity.getIfPresent(affinityKey);
+        if (pinned != null && pinned.isHealthy()) {
+            return pinned;
+        }
+        OllamaBackend chosen = choose();
+        affinity.put(affinityKey, chosen);
+        return chosen;
+    }
+
+    /**
+     * 在选中的节点上执行流式请求，以首个元素的到达时间作为延迟样本
+     */
+    public <T> Flux<T> stream(Function<WebClient, Flux<T>> request) {
+        return Flux.defer(() -> streamOn(choose(), request));
+    }
+
+    /**
+     * 在亲和键固定的节点上执行流式请求
+     */
+    public <T> Flux<T> stream(Object affinityKey, Function<WebClient, Flux<T>> request) {
+        return Flux.defer(() -> streamOn(choose(affinityKey), request));
+    }
+
+    /**
+     * 亲和键当前固定的节点，未固定时为null
+     */
+    public OllamaBackend getPinned(Object affinityKey) {
+        return affinity.getIfPresent(affinityKey);
+    }
+
+    private <T> Flux<T> streamOn(OllamaBackend backend, Function<WebClient, Flux<T>> request) {
+        backend.acquire();
+        long start = System.currentTimeMillis();
+        AtomicBoolean first = new AtomicBoolean(true);
+        return request.apply(backend.getWebClient())
+                .doOnNext(item -> {
+                    if (first.compareAndSet(true, false)) {
+                        backend.recordLatency(System.currentTimeMillis() - start);
+                    }
+                })
+                .doOnComplete(backend::markHealthy)
+                .doOnError(error -> onFailure(backend, error))
+                .doFinally(signal -> backend.release());
+    }
+
+    /**
+     * 在选中的节点上执行单次（非流式）请求
+     */
+    public <T> Mono<T> call(Function<WebClient, Mono<T>> request) {
+        return Mono.defer(() -> {
+            OllamaBackend backend = choose();
+            backend.acquire();
+            long start = System.currentTimeMillis();
+            return request.apply(backend.getCallClient())
+                    .doOnSuccess(result -> {
+                        backend.recordLatency(System.currentTimeMillis() - start);
+                        backend.markHealthy();
+                    })
+                    .doOnError(error -> onFailure(backend, error))
+                    .doFinally(signal -> backend.release());
+        });
+    }
+
+    private void onFailure(OllamaBackend backend, Throwable error) {
+        // 4xx是请求本身的问题，不代表节点故障
+        if (error instanceof WebClientResponseException
+                && ((WebClientResponseException) error).getStatusCode().is4xxClientError()) {
+            return;
+        }
+        int failures = backend.recordFailure();
+        if (failures >= failureThreshold && backend.isHealthy()) {
+            backend.markUnhealthy();
+            log.warn("Ollama节点 {} 连续失败 {} 次，暂时摘除: {}", backend, failures, error.getMessage());
+        }
+    }
+
+    /**
+     * 定期探活所有节点
+     */
+    @Scheduled(fixedDelayString = "${ollama.health.interval-ms:10000}")
+    public void probe() {
+        backends.forEach(backend -> probe(backend).subscribe());
+    }
+
+    /**
+     * 探活单个节点，返回探活结果
+     */
+    public Mono<Boolean> probe(OllamaBackend backend) {
+        return backend.getWebClient().get()
+                .uri("/api/tags")
+                .retrieve()
+                .toBodilessEntity()
+                .timeout(probeTimeout)
+                .map(response -> true)
+                .onErrorReturn(false)
+                .doOnNext(ok -> {
+                    if (ok) {
+                        if (!backend.isHealthy()) {
+                            log.info("Ollama节点 {} 恢复，重新加入", backend);
+                        }
+                        backend.markHealthy();
+                    } else if (backend.recordFailure() >= failureThreshold && backend.isHealthy()) {
+                        backend.markUnhealthy();
+                        log.warn("Ollama节点 {} 探活失败，暂时摘除", backend);
+                    }
+                });
+    }
+
+    public List<OllamaBackend> getBackends() {
+        return backends;
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.sse.service;
+
+/**
+ * Ollama流式响应中的一块（一行NDJSON）
+ * 只保留用到的字段：message.content、done、错误信息和耗时统计
+ */
+public final class OllamaChunk {
+
+    private final String content;
+    private final boolean done;
+    private final String error;
+    private final long totalDuration;
+    private final long loadDuration;
+    private final long promptEvalCount;
+    private final long promptEvalDuration;
+    private final long evalCount;
+    private final long evalDuration;
+
+    OllamaChunk(String content, boolean done, String error, long totalDuration, long loadDuration,
+                long promptEvalCount, long promptEvalDuration, long evalCount, long evalDuration) {
+        this.content = content;
+        this.done = done;
+        this.error = error;
+        this.totalDuration = totalDuration;
+        this.loadDuration = loadDuration;
+        this.promptEvalCount = promptEvalCount;
+        this.promptEvalDuration = promptEvalDuration;
+        this.evalCount = evalCount;
+        this.evalDuration = evalDuration;
+    }
+
+    /**
+     * 本块的文本内容，可能为null或空字符串
+     */
+    public String getContent() {
+        return content;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Ollama返回的错误信息，正常块为null
+     */
+    public String getError() {
+        return error;
+    }
+
+    // 以下耗时单位均为纳秒，只在done=true的最后一块中出现
+
+    public long getTotalDuration() {
+        return totalDuration;
+    }
+
+    public long getLoadDuration() {
+        return loadDuration;
+    }
+
+    public long getPromptEvalCount() {
+        return promptEvalCount;
+    }
+
+    public long getPromptEvalDuration() {
+        return promptEvalDuration;
+    }
+
+    public long getEvalCount() {
+        return evalCount;
+    }
+
+    public long getEvalDuration() {
+        return evalDuration;
+    }
+}
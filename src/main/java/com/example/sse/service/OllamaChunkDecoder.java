@@ -0,0 +1,202 @@
+package com.example.sse.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Ollama NDJSON流式解码器
+ * 用Jackson非阻塞解析器直接在字节流上逐token解析，只提取需要的字段，
+ * 不再为每一块构造完整的Map树；一行JSON跨多个DataBuffer时也能正确解析
+ */
+@Component
+public class OllamaChunkDecoder {
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    /**
+     * 把响应体解码为响应块，每个订阅使用独立的解析状态
+     */
+    public Flux<OllamaChunk> decode(Flux<DataBuffer> body) {
+        return Flux.defer(() -> {
+            Session session = new Session();
+            return body.concatMapIterable(session::feed)
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(session.finish())));
+        });
+    }
+
+    /**
+     * 单次响应的解析状态
+     */
+    private final class Session {
+        private final JsonParser parser;
+
+        // 当前嵌套深度（对象和数组都计入），顶层对象内为1
+        private int depth;
+        // 顶层对象中最近的字段名，以及当前是否位于message对象内
+        private String topField;
+        private String messageField;
+        private boolean inMessage;
+
+        private String content;
+        private boolean done;
+        private String error;
+        private long totalDuration;
+        private long loadDuration;
+        private long promptEvalCount;
+        private long promptEvalDuration;
+        private long evalCount;
+        private long evalDuration;
+
+        private Session() {
+            try {
+                this.parser = jsonFactory.createNonBlockingByteArrayParser();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private List<OllamaChunk> feed(DataBuffer buffer) {
+            byte[] bytes;
+            try {
+                bytes = new byte[buffer.readableByteCount()];
+                buffer.read(bytes);
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+            try {
+                ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).feedInput(bytes, 0, bytes.length);
+                return drain();
+            } catch (IOException e) {
+                throw new UncheckedIOException("解析Ollama响应失败", e);
+            }
+        }
+
+        private List<OllamaChunk> finish() {
+            try {
+                parser.getNonBlockingInputFeeder().endOfInput();
+                List<OllamaChunk> chunks = drain();
+                parser.close();
+                return chunks;
+            } catch (IOException e) {
+                throw new UncheckedIOException("解析Ollama响应失败", e);
+            }
+        }
+
+        /**
+         * 解析当前已有的全部token，返回其中完整的顶层对象
+         */
+        private List<OllamaChunk> drain() throws IOException {
+            List<OllamaChunk> chunks = Collections.emptyList();
+            JsonToken token;
+            while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                switch (token) {
+                    case START_OBJECT:
+                    case START_ARRAY:
+                        depth++;
+                        if (depth == 1) {
+                            reset();
+                        } else if (depth == 2 && token == JsonToken.START_OBJECT && "message".equals(topField)) {
+                            inMessage = true;
+                        }
+                        break;
+                    case END_OBJECT:
+                    case END_ARRAY:
+                        depth--;
+                        if (depth == 1) {
+                            inMessage = false;
+                        } else if (depth == 0) {
+                            if (chunks.isEmpty()) {
+                                chunks = new ArrayList<>(4);
+                            }
+                            chunks.add(new OllamaChunk(content, done, error, totalDuration, loadDuration,
+                                    promptEvalCount, promptEvalDuration, evalCount, evalDuration));
+                        }
+                        break;
+                    case FIELD_NAME:
+                        // 字段名由Jackson的符号表规范化，不会为每块重新分配
+                        if (depth == 1) {
+                            topField = parser.getCurrentName();
+                        } else if (depth == 2 && inMessage) {
+                            messageField = parser.getCurrentName();
+                        }
+                        break;
+                    case VALUE_STRING:
+                        if (depth == 2 && inMessage && "content".equals(messageField)) {
+                            content = parser.getText();
+                        } else if (depth == 1 && "error".equals(topField)) {
+                            error = parser.getText();
+                        }
+                        break;
+                    case VALUE_TRUE:
+                    case VALUE_FALSE:
+                        if (depth == 1 && "done".equals(topField)) {
+                            done = token == JsonToken.VALUE_TRUE;
+                        }
+                        break;
+                    case VALUE_NUMBER_INT:
+                        if (depth == 1) {
+                            readTiming();
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return chunks;
+        }
+
+        private void readTiming() throws IOException {
+            switch (topField) {
+                case "total_duration":
+                    totalDuration = parser.getLongValue();
+                    break;
+                case "load_duration":
+                    loadDuration = parser.getLongValue();
+                    break;
+                case "prompt_eval_count":
+                    promptEvalCount = parser.getLongValue();
+                    break;
+                case "prompt_eval_duration":
+                    promptEvalDuration = parser.getLongValue();
+                    break;
+                case "eval_count":
+                    evalCount = parser.getLongValue();
+                    break;
+                case "eval_duration":
+                    evalDuration = parser.getLongValue();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void reset() {
+            topField = null;
+            messageField = null;
+            inMessage = false;
+            content = null;
+            done = false;
+            error = null;
+            totalDuration = 0;
+            loadDuration = 0;
+            promptEvalCount = 0;
+            promptEvalDuration = 0;
+            evalCount = 0;
+            evalDuration = 0;
+        }
+    }
+}
@@ -1,38 +1,99 @@
 package com.example.sse.service;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Service
 public class OllamaService {
 
-    private final WebClient webClient;
-    private static final String OLLAMA_API_URL = "http://localhost:11434";
+    private static final Logger log = LoggerFactory.getLogger(OllamaService.class);
+
+    // Ollama节点池，负责选择节点
+    private final OllamaBackendPool backendPool;
     
     // 默认模型名称，可以根据本地安装的模型进行调整
     private static final String DEFAULT_MODEL = "llama3.2";
 
-    public OllamaService() {
-        this.webClient = WebClient.builder()
-                .baseUrl(OLLAMA_API_URL)
-                .build();
+    // 流式响应块合并器
+    private final ChunkCoalescer chunkCoalescer;
+    
+    // 流式响应解码器
+    private final OllamaChunkDecoder chunkDecoder;
+    
+    // 非流式生成结果缓存
+    private final GenerationCache generationCache;
+    
+    // 会话上下文，提供多轮对话的历史消息
+    private final ConversationContext conversationContext;
+    
+    // 请求结束后模型在Ollama中保持加载的时间
+    private final String keepAlive;
+    
+    // 首token延迟和提示词处理耗时，按首轮/后续轮次区分
+    private final MeterRegistry meterRegistry;
+    
+    // 进行中的生成登记表，用于停止生成
+    private final GenerationRegistry generationRegistry;
+    
+    // AI回复的增量检查点
+    private final ResponseCheckpointer responseCheckpointer;
+
+    @Autowired
+    public OllamaService(ChunkCoalescer chunkCoalescer, OllamaChunkDecoder chunkDecoder,
+                         OllamaBackendPool backendPool, GenerationCache generationCache,
+                         ConversationContext conversationContext, MeterRegistry meterRegistry,
+                         GenerationRegistry generationRegistry, ResponseCheckpointer responseCheckpointer,
+                         @Value("${ollama.keep-alive:30m}") String keepAlive) {
+        this.chunkCoalescer = chunkCoalescer;
+        this.chunkDecoder = chunkDecoder;
+        this.backendPool = backendPool;
+        this.generationCache = generationCache;
+        this.conversationContext = conversationContext;
+        this.meterRegistry = meterRegistry;
+        this.generationRegistry = generationRegistry;
+        this.responseCheckpointer = responseCheckpointer;
+        this.keepAlive = keepAlive;
     }
 
     /**
      * 生成非流式响应
+     * 会阻塞调用线程直到生成结束，请求线程中应使用{@link #generateResponseAsync(String)}
      * @param userMessage 用户消息
      * @return AI响应内容
      */
     public String generateResponse(String userMessage) {
+        return generateResponseAsync(userMessage).block();
+    }
+
+    /**
+     * 异步生成非流式响应，不占用调用线程
+     * @param userMessage 用户消息
+     * @return AI响应内容，失败时为错误提示
+     */
+    public Mono<String> generateResponseAsync(String userMessage) {
         List<Map<String, String>> messages = new ArrayList<>();
         Map<String, String> userMsg = new HashMap<>();
         userMsg.put("role", "user");
@@ -43,26 +104,23 @@ public class OllamaService {
         requestBody.put("model", DEFAULT_MODEL);
         requestBody.put("messages", messages);
         requestBody.put("stream", false);
+        requestBody.put("keep_alive", keepAlive);
 
-        try {
-            Map<String, Object> response = webClient.post()
-                    .uri("/api/chat")
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .bodyToMono(Map.class)
-                    .block();
-
-            if (response != null && response.containsKey("message")) {
-                Map<String, String> messageObj = (Map<String, String>) response.get("message");
-                return messageObj.get("content");
-            } else {
-                return "无法从Ollama获取响应";
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            return "调用Ollama API时发生错误: " + e.getMessage();
-        }
+        return backendPool.call(client -> client.post()
+                .uri("/api/chat")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(requestBody)
+                .retrieve()
+                .bodyToMono(Map.class))
+                .flatMap(response -> {
+                    Map<String, String> messageObj = (Map<String, String>) response.get("message");
+                    return Mono.justOrEmpty(messageObj == null ? null : messageObj.get("content"));
+                })
+                .defaultIfEmpty("无法从Ollama获取响应")
+                .onErrorResume(e -> {
+                    log.error("调用Ollama API失败", e);
+                    return Mono.just("调用Ollama API时发生错误: " + e.getMessage());
+                });
     }
 
     /**
@@ -71,160 +129,292 @@ public class OllamaService {
      * @param onChunk 处理每个响应块的回调
      * @param onComplete 完成时的回调
      * @param onError 发生错误时的回调
+     * @return 用于中止生成的句柄
+     */
+    public Disposable generateResponseStream(String userMessage, Consumer<String> onChunk, 
+                                            Runnable onComplete, Consumer<Throwable> onError) {
+        return streamResponse(userMessage).subscribe(onChunk, onError, onComplete);
+    }
+
+    /**
+     * 生成流式响应，返回响应内容块的Flux
+     * 下游按需请求，背压会一直传递到与Ollama的HTTP连接
+     * @param userMessage 用户消息
+     * @return 非空的响应内容块
+     */
+    public Flux<String> streamResponse(String userMessage) {
+        return contentOf(streamChunks(userMessage));
+    }
+
+    /**
+     * 带会话历史生成流式响应，历史消息由会话上下文按token预算截取
+     * 同一会话固定到同一个Ollama节点，配合keep_alive使上一轮的提示词前缀留在节点缓存中
+     * @param conversationId 会话ID
+     * @param userMessage 当前用户消息
+     * @return 非空的响应内容块
+     */
+    public Flux<String> streamConversation(Integer conversationId, String userMessage) {
+        return buildContext(conversationId, userMessage)
+                .flatMapMany(messages -> streamConversation(conversationId, messages));
+    }
+
+    /**
+     * 带会话历史生成流式响应，回复经检查点增量保存
+     * 上下文构建完成后才创建生成中的AI消息；出错或被取消（停止、客户端断开）时已生成的部分保存为中断的消息
+     * @return 非空的响应内容块，正常结束时回复已标记完成
+     */
+    public Flux<String> streamConversation(Integer conversationId, String userMessage,
+                                           MessageService messageService) {
+        return buildContext(conversationId, userMessage)
+                .flatMapMany(messages -> responseCheckpointer.track(conversationId, messageService,
+                        streamConversation(conversationId, messages), null));
+    }
+
+    /**
+     * 构建会话上下文，首次使用时需从数据库加载，不能在事件循环线程上执行
+     */
+    private Mono<List<Map<String, String>>> buildContext(Integer conversationId, String userMessage) {
+        return Mono.fromCallable(() -> conversationContext.build(conversationId, userMessage))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Flux<String> streamConversation(Integer conversationId, List<Map<String, String>> messages) {
+        return contentOf(timed(messages.size() > 1 ? "followup" : "first", streamChunks(conversationId, messages)));
+    }
+
+    /**
+     * 记录首token延迟、相邻响应块的间隔、生成速度和Ollama报告的提示词处理耗时
+     * @param turn first表示会话首轮，followup表示带历史的后续轮次
+     */
+    private Flux<OllamaChunk> timed(String turn, Flux<OllamaChunk> chunks) {
+        return Flux.defer(() -> {
+            Timer ttft = Timer.builder("ollama.ttft")
+                    .description("从发起请求到收到首个响应块的时间")
+                    .tag("turn", turn)
+                    .register(meterRegistry);
+            Timer interToken = Timer.builder("ollama.inter.token")
+                    .description("相邻两个响应块的到达间隔")
+                    .register(meterRegistry);
+            long start = System.nanoTime();
+            AtomicLong last = new AtomicLong();
+            return chunks.doOnNext(chunk -> {
+                long now = System.nanoTime();
+                long previous = last.getAndSet(now);
+                if (previous == 0) {
+                    ttft.record(now - start, TimeUnit.NANOSECONDS);
+                } else {
+                    interToken.record(now - previous, TimeUnit.NANOSECONDS);
+                }
+                if (!chunk.isDone()) {
+                    return;
+                }
+                if (chunk.getPromptEvalDuration() > 0) {
+                    Timer.builder("ollama.prompt.eval")
+                            .description("Ollama处理提示词的耗时，前缀命中缓存时明显缩短")
+                            .tag("turn", turn)
+                            .register(meterRegistry)
+                            .record(chunk.getPromptEvalDuration(), TimeUnit.NANOSECONDS);
+                }
+                if (chunk.getEvalCount() > 0 && chunk.getEvalDuration() > 0) {
+                    DistributionSummary.builder("ollama.tokens.per.second")
+                            .description("单次生成的输出速度，按Ollama报告的eval_count和eval_duration计算")
+                            .baseUnit("tokens")
+                            .register(meterRegistry)
+                            .record(chunk.getEvalCount() * 1e9 / chunk.getEvalDuration());
+                }
+            });
+        });
+    }
+
+    /**
+     * 提取响应块中的非空内容
+     */
+    static Flux<String> contentOf(Flux<OllamaChunk> chunks) {
+        return chunks
+                .<String>handle((chunk, sink) -> {
+                    String content = chunk.getContent();
+                    if (content != null && !content.isEmpty()) {
+                        sink.next(content);
+                    }
+                });
+    }
+
+    /**
+     * 生成流式响应，返回解码后的原始响应块（包括最后一块中的耗时统计）
+     * Ollama在流中返回error字段时以异常结束
      */
-    public void generateResponseStream(String userMessage, Consumer<String> onChunk, 
-                                      Runnable onComplete, Consumer<Throwable> onError) {
+    public Flux<OllamaChunk> streamChunks(String userMessage) {
         List<Map<String, String>> messages = new ArrayList<>();
         Map<String, String> userMsg = new HashMap<>();
         userMsg.put("role", "user");
         userMsg.put("content", userMessage);
         messages.add(userMsg);
+        return streamChunks(messages);
+    }
+
+    /**
+     * 以给定的消息列表（多轮对话）生成流式响应
+     * @param messages 按时间顺序排列的消息，每条包含role和content
+     */
+    public Flux<OllamaChunk> streamChunks(List<Map<String, String>> messages) {
+        return streamChunks(null, messages);
+    }
 
+    /**
+     * 以给定的消息列表生成流式响应，指定会话时固定到该会话的节点
+     */
+    private Flux<OllamaChunk> streamChunks(Integer conversationId, List<Map<String, String>> messages) {
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("model", DEFAULT_MODEL);
         requestBody.put("messages", messages);
         requestBody.put("stream", true);
+        requestBody.put("keep_alive", keepAlive);
 
-        System.out.println(requestBody);
-
-        Flux<Map> responseFlux = webClient.post()
+        // 解码放在节点池的请求内，首个响应块的到达时间计入节点延迟
+        Function<WebClient, Flux<OllamaChunk>> request = client -> chunkDecoder.decode(client.post()
                 .uri("/api/chat")
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(requestBody)
                 .retrieve()
-                .bodyToFlux(Map.class);
-
-        responseFlux.subscribe(
-                chunk -> {
-                    if (chunk.containsKey("message")) {
-                        Map<String, String> messageObj = (Map<String, String>) chunk.get("message");
-                        String content = messageObj.get("content");
-                        if (content != null && !content.isEmpty()) {
-                            onChunk.accept(content);
-                        }
+                .bodyToFlux(DataBuffer.class));
+        return (conversationId == null ? backendPool.stream(request) : backendPool.stream(conversationId, request))
+                .handle((chunk, sink) -> {
+                    if (chunk.getError() != null) {
+                        sink.error(new IllegalStateException(chunk.getError()));
+                    } else {
+                        sink.next(chunk);
                     }
-                },
-                onError,
-                onComplete
-        );
+                });
     }
 
     /**
      * 为会话生成完整响应，流式传输给客户端
-     * @param userMessage 用户消息
-     * @param conversationId 会话ID
-     * @param messageService 消息服务，用于保存回复
-     * @param sseService SSE服务，用于发送事件
+     * 生成可通过{@link GenerationRegistry#cancel(Integer)}停止，会话的订阅者全部断开时也会自动停止，
+     * 停止或出错时已生成的部分保存为中断的消息
+     * @param onFinished 生成结束（无论成功、失败或停止）后的回调，用于释放调度名额
      */
     public void generateConversationResponse(String userMessage, Integer conversationId, 
-                                           MessageService messageService, SseService sseService) {
-        // 创建临时AI消息对象
-        StringBuilder fullResponse = new StringBuilder();
-        
-        // 使用流式API获取响应
-        generateResponseStream(
-            userMessage,
-            // 每收到一个响应块
-            chunk -> {
-                fullResponse.append(chunk);
-                // 发送流式更新事件
-                sseService.sendToAll("AI响应流", Map.of(
+                                           MessageService messageService, SseService sseService,
+                                           Runnable onFinished) {
+        // 只推送给订阅了该会话的客户端
+        String topic = SseService.conversationTopic(conversationId);
+        // 合并相邻的响应块后再发送流式更新事件
+        ChunkCoalescer.Batch batch = chunkCoalescer.open(content ->
+                sseService.sendToTopic(topic, "AI响应流", Map.of(
                     "conversationId", conversationId,
-                    "content", chunk,
+                    "content", content,
                     "senderType", 2, // AI类型
                     "isPartial", true
-                ));
+                )));
+        
+        // 先构建上下文再创建AI消息，冷加载时不会与异步写入的占位消息并发；
+        // 生成过程中增量写入，剩余的响应块推送后再标记完成；出错且没有内容时保存一个错误消息
+        Flux<String> response = buildContext(conversationId, userMessage)
+                .flatMapMany(messages -> responseCheckpointer.track(conversationId, messageService,
+                        streamConversation(conversationId, messages).doOnNext(batch::append)
+                                .doOnComplete(batch::close),
+                        "抱歉，生成回复时出现错误"));
+        
+        generationRegistry.cancellable(conversationId, response, true).subscribe(
+            // 响应块已在上游推送和写入
+            chunk -> { },
+            // 错误处理
+            error -> {
+                try {
+                    batch.close();
+                    // 发送错误通知
+                    sseService.sendToTopic(topic, "错误", Map.of(
+                        "conversationId", conversationId,
+                        "error", "AI响应生成失败: " + error.getMessage()
+                    ));
+                } finally {
+                    onFinished.run();
+                }
             },
-            // 完成时保存完整消息
+            // 完成（或被停止）
             () -> {
-                String completeResponse = fullResponse.toString();
-                // 保存完整的AI响应
-                if (!completeResponse.isEmpty()) {
-                    messageService.addAiResponse(conversationId, completeResponse);
+                try {
+                    batch.close();
+                    // 发送AI响应结束事件，通知前端完成消息流
+                    sseService.sendToTopic(topic, "AI响应结束", Map.of(
+                        "conversationId", conversationId,
+                        "complete", true
+                    ));
+                } finally {
+                    onFinished.run();
                 }
-                
-                // 发送AI响应结束事件，通知前端完成消息流
-                sseService.sendToAll("AI响应结束", Map.of(
-                    "conversationId", conversationId,
-                    "complete", true
-                ));
-            },
-            // 错误处理
-            error -> {
-                // 发送错误通知
-                sseService.sendToAll("错误", Map.of(
-                    "conversationId", conversationId,
-                    "error", "AI响应生成失败: " + error.getMessage()
-                ));
-                // 保存一个错误消息
-                messageService.addAiResponse(conversationId, "抱歉，生成回复时出现错误");
             }
         );
     }
 
+    /**
+     * 调用/api/generate生成非流式响应，结果经过缓存
+     * 相同的模型、提示词和参数在缓存有效期内直接返回缓存结果，并发的相同请求只调用一次
+     * @return 响应内容，Ollama未返回response字段时为空
+     */
+    private Mono<String> generateCached(String prompt, Map<String, Object> options) {
+        return generationCache.get(DEFAULT_MODEL, prompt, options, () -> {
+            Map<String, Object> requestBody = new HashMap<>();
+            requestBody.put("model", DEFAULT_MODEL);
+            requestBody.put("prompt", prompt);
+            requestBody.put("stream", false);
+            requestBody.put("options", options);
+            requestBody.put("keep_alive", keepAlive);
+            return backendPool.call(client -> client.post()
+                    .uri("/api/generate")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(requestBody)
+                    .retrieve()
+                    .bodyToMono(Map.class))
+                    .flatMap(response -> Mono.justOrEmpty((String) response.get("response")));
+        });
+    }
+
     /**
      * 生成简短的自我介绍
+     * 会阻塞调用线程，请求线程中应使用{@link #generateIntroductionAsync()}
      */
     public String generateIntroductionResponse() {
-        Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("model", DEFAULT_MODEL);
-        requestBody.put("prompt", "你好，请用两句话介绍一下自己");
-        requestBody.put("stream", false);
+        return generateIntroductionAsync().block();
+    }
+
+    /**
+     * 异步生成简短的自我介绍，失败时返回默认介绍
+     */
+    public Mono<String> generateIntroductionAsync() {
         Map<String, Object> options = new HashMap<>();
         options.put("temperature", 0.7);
         options.put("max_tokens", 100);
-        requestBody.put("options", options);
-    
-        try {
-            Map<String, Object> response = webClient.post()
-                    .uri("/api/generate")
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .bodyToMono(Map.class)
-                    .block();
-    
-            if (response != null && response.containsKey("response")) {
-                return (String) response.get("response");
-            } else {
-                return "我是您的AI助手，随时为您提供帮助。";
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            return "我是您的AI助手，随时为您提供帮助。";
-        }
+
+        return generateCached("你好，请用两句话介绍一下自己", options)
+                .defaultIfEmpty("我是您的AI助手，随时为您提供帮助。")
+                .onErrorResume(e -> {
+                    log.error("生成AI简介失败", e);
+                    return Mono.just("我是您的AI助手，随时为您提供帮助。");
+                });
     }
 
     /**
      * 生成动态响应
+     * 会阻塞调用线程，请求线程中应使用{@link #generateDynamicAsync(String)}
      */
     public String generateDynamicResponse(String prompt) {
-        Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("model", DEFAULT_MODEL);
-        requestBody.put("prompt", prompt);
-        requestBody.put("stream", false);
+        return generateDynamicAsync(prompt).block();
+    }
+
+    /**
+     * 异步生成动态响应，失败时为错误提示
+     */
+    public Mono<String> generateDynamicAsync(String prompt) {
         Map<String, Object> options = new HashMap<>();
         options.put("temperature", 0.7);
         options.put("max_tokens", 2000);
-        requestBody.put("options", options);
-    
-        try {
-            Map<String, Object> response = webClient.post()
-                    .uri("/api/generate")
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .bodyToMono(Map.class)
-                    .block();
-    
-            if (response != null && response.containsKey("response")) {
-                return (String) response.get("response");
-            } else {
-                return "无法从Ollama获取响应";
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            return "调用Ollama API时发生错误: " + e.getMessage();
-        }
+
+        return generateCached(prompt, options)
+                .defaultIfEmpty("无法从Ollama获取响应")
+                .onErrorResume(e -> {
+                    log.error("调用Ollama API失败", e);
+                    return Mono.just("调用Ollama API时发生错误: " + e.getMessage());
+                });
     }
-}
\ No newline at end of file
+}
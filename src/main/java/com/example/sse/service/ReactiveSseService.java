@@ -0,0 +1,144 @@
+package com.example.sse.service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+/**
+ * 基于Reactor的SSE推送，与SseEmitter方式并存
+ * 每个主题一个Sinks.Many，订阅者之间互不阻塞，慢订阅者只丢弃自己缓冲区中最早的事件；
+ * 向所有客户端发布的事件走单独的全局sink，订阅多个主题的客户端也只收到一次
+ */
+@Service
+public class ReactiveSseService {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveSseService.class);
+
+    // 主题 -> 事件源
+    private final Map<String, TopicSink> sinks = new ConcurrentHashMap<>();
+
+    // 向所有客户端发布的事件，每个订阅者只订阅一次
+    private final Sinks.Many<ServerSentEvent<Object>> allSink = Sinks.many().multicast().directBestEffort();
+
+    // 每个订阅者的缓冲区大小
+    private final int bufferSize;
+
+    public ReactiveSseService(@Value("${sse.dispatch.queue-capacity:256}") int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * 订阅指定主题，为空时订阅广播主题
+     */
+    public Flux<ServerSentEvent<Object>> subscribe(Collection<String> topics) {
+        Collection<String> subscribed = (topics == null || topics.isEmpty())
+                ? List.of(SseService.BROADCAST_TOPIC) : topics;
+        // 订阅时才获取sink，创建和计入订阅者在同一个原子操作内完成，避免拿到已被回收的sink
+        Flux<ServerSentEvent<Object>> topicEvents = Flux.fromIterable(subscribed)
+                .flatMap(topic -> Flux.defer(() -> acquire(topic).asFlux())
+                        .doFinally(signal -> release(topic)));
+        Flux<ServerSentEvent<Object>> events = Flux.merge(topicEvents, allSink.asFlux());
+        ServerSentEvent<Object> connect = ServerSentEvent.builder()
+                .event("connect")
+                .data((Object) ("连接成功 - 主题: " + subscribed))
+                .build();
+        return Flux.just(connect)
+                .concatWith(events)
+                .onBackpressureBuffer(bufferSize, dropped ->
+                        log.warn("响应式订阅者消费过慢，丢弃事件: {}", dropped.event()),
+                        BufferOverflowStrategy.DROP_OLDEST);
+    }
+
+    /**
+     * 向主题发布事件，广播主题的订阅者同样会收到
+     */
+    public void publish(long id, String topic, String eventName, Object data) {
+        ServerSentEvent<Object> event = ServerSentEvent.builder()
+                .id(String.valueOf(id))
+                .event(eventName)
+                .data(data)
+                .build();
+        emit(topic, event);
+        if (!SseService.BROADCAST_TOPIC.equals(topic)) {
+            emit(SseService.BROADCAST_TOPIC, event);
+        }
+    }
+
+    /**
+     * 向所有订阅者发布事件，无论订阅了哪些主题，每个订阅者只收到一次
+     */
+    public void publishToAll(long id, String eventName, Object data) {
+        ServerSentEvent<Object> event = ServerSentEvent.builder()
+                .id(String.valueOf(id))
+                .event(eventName)
+                .data(data)
+                .build();
+        emit("all", allSink, event);
+    }
+
+    /**
+     * 当前有订阅者的主题数
+     */
+    public int getActiveTopicCount() {
+        return sinks.size();
+    }
+
+    /**
+     * 主题当前的响应式订阅者数
+     */
+    public int getSubscriberCount(String topic) {
+        TopicSink topicSink = sinks.get(topic);
+        return topicSink == null ? 0 : topicSink.subscribers;
+    }
+
+    private void emit(String topic, ServerSentEvent<Object> event) {
+        TopicSink topicSink = sinks.get(topic);
+        if (topicSink != null) {
+            emit(topic, topicSink.sink, event);
+        }
+    }
+
+    private void emit(String topic, Sinks.Many<ServerSentEvent<Object>> sink, ServerSentEvent<Object> event) {
+        // Sinks不允许并发emit，发布方可能来自多个线程
+        synchronized (sink) {
+            Sinks.EmitResult result = sink.tryEmitNext(event);
+            if (result.isFailure() && result != Sinks.EmitResult.FAIL_ZERO_SUBSCRIBER) {
+                log.warn("向主题 {} 发布事件失败: {}", topic, result);
+            }
+        }
+    }
+
+    /**
+     * 主题的sink及其订阅者数，订阅者数只在map的compute内修改
+     */
+    private static final class TopicSink {
+        // directBestEffort: 某个订阅者跟不上时只对它丢弃，不影响其它订阅者
+        private final Sinks.Many<ServerSentEvent<Object>> sink = Sinks.many().multicast().directBestEffort();
+        private volatile int subscribers;
+    }
+
+    private Sinks.Many<ServerSentEvent<Object>> acquire(String topic) {
+        return sinks.compute(topic, (k, topicSink) -> {
+            if (topicSink == null) {
+                topicSink = new TopicSink();
+            }
+            topicSink.subscribers++;
+            return topicSink;
+        }).sink;
+    }
+
+    private void release(String topic) {
+        sinks.computeIfPresent(topic, (k, topicSink) -> --topicSink.subscribers == 0 ? null : topicSink);
+    }
+}
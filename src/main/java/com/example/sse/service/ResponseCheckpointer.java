@@ -0,0 +1,222 @@
+package com.example.sse.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.sse.dto.MessageDTO;
+import com.example.sse.model.Message;
+import com.example.sse.repository.MessageRepository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * AI回复的增量检查点
+ * 生成开始时即创建状态为生成中的消息，生成过程中按时间间隔或新增字符数把当前内容写回，
+ * 结束时只需修改状态；服务崩溃时已写入的部分不会丢失，生成中刷新页面也能看到已有内容
+ * 出错或被停止的回复标记为中断，不作为后续生成的上下文
+ * 所有数据库写入在同一个写线程上按提交顺序执行，不占用生成流的线程
+ */
+@Component
+public class ResponseCheckpointer implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ResponseCheckpointer.class);
+
+    private final long intervalMillis;
+    private final int minChars;
+    private final MessageRepository messageRepository;
+    private final ScheduledExecutorService writer;
+    private final Timer flushTimer;
+
+    @Autowired
+    public ResponseCheckpointer(@Value("${message.checkpoint.interval-ms:1000}") long intervalMillis,
+                                @Value("${message.checkpoint.min-chars:512}") int minChars,
+                                MessageRepository messageRepository, MeterRegistry meterRegistry) {
+        this.intervalMillis = intervalMillis;
+        this.minChars = minChars;
+        this.messageRepository = messageRepository;
+        this.flushTimer = Timer.builder("message.write.checkpoint")
+                .description("写入一次AI回复检查点的耗时")
+                .register(meterRegistry);
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "response-checkpointer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 服务启动时，上次运行中未完成的回复标记为已中断
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void recoverInterrupted() {
+        int interrupted = messageRepository.updateAllStatus(Message.STATUS_GENERATING, Message.STATUS_INTERRUPTED);
+        if (interrupted > 0) {
+            log.warn("{} 条AI回复在上次运行中未完成，已标记为中断", interrupted);
+        }
+    }
+
+    /**
+     * 为一次生成创建检查点，并异步创建生成中的消息
+     */
+    public Checkpoint open(Integer conversationId, MessageService messageService) {
+        Checkpoint checkpoint = new Checkpoint(conversationId, messageService);
+        writer.execute(checkpoint::start);
+        return checkpoint;
+    }
+
+    /**
+     * 为生成流建立检查点：订阅时创建生成中的消息，内容随流写入
+     * 流正常结束时标记完成（完成后下游才收到结束信号）；出错或被取消（停止、客户端断开）时，
+     * 已生成的部分标记为中断
+     * @param errorFallback 出错且没有生成任何内容时保存的内容，为空则不保存
+     */
+    public Flux<String> track(Integer conversationId, MessageService messageService, Flux<String> generation,
+                              String errorFallback) {
+        return Flux.usingWhen(
+                Mono.fromSupplier(() -> open(conversationId, messageService)),
+                checkpoint -> generation.doOnNext(checkpoint::append),
+                checkpoint -> finish(checkpoint, null, false),
+                (checkpoint, error) -> finish(checkpoint, errorFallback, true),
+                checkpoint -> finish(checkpoint, null, true));
+    }
+
+    private Mono<MessageDTO> finish(Checkpoint checkpoint, String fallback, boolean interrupted) {
+        return Mono.fromFuture(() -> checkpoint.complete(fallback, interrupted))
+                .onErrorResume(e -> {
+                    log.error("保存会话 {} 的AI回复失败", checkpoint.conversationId, e);
+                    return Mono.empty();
+                });
+    }
+
+    @Override
+    public void destroy() {
+        writer.shutdown();
+        try {
+            // 尽量写完已提交的检查点
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 单次生成的检查点，append可在任意线程调用
+     */
+    public class Checkpoint {
+        private final Integer conversationId;
+        private final MessageService messageService;
+        private final StringBuilder content = new StringBuilder();
+
+        // 以下字段由append线程和写线程共享，受this保护
+        private ScheduledFuture<?> pendingFlush;
+        private int scheduledLength;
+        private boolean closed;
+
+        // 以下字段只在写线程上访问
+        private MessageDTO started;
+        private int savedLength;
+
+        private Checkpoint(Integer conversationId, MessageService messageService) {
+            this.conversationId = conversationId;
+            this.messageService = messageService;
+        }
+
+        /**
+         * 追加生成的内容，新增字符数超过阈值时立即写入，否则在时间间隔结束时写入
+         */
+        public synchronized void append(String chunk) {
+            if (closed) {
+                return;
+            }
+            content.append(chunk);
+            if (content.length() - scheduledLength >= minChars) {
+                if (pendingFlush != null) {
+                    pendingFlush.cancel(false);
+                }
+                scheduledLength = content.length();
+                pendingFlush = writer.schedule(this::flush, 0, TimeUnit.MILLISECONDS);
+            } else if (pendingFlush == null) {
+                pendingFlush = writer.schedule(this::flush, intervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * 结束生成，写入剩余内容并把消息标记为完成或中断
+         * 没有生成任何内容时使用fallback，fallback也为空则删除该消息
+         * @param interrupted 生成出错或被停止，消息标记为中断，不进入会话上下文
+         * @return 写入完成后结束，值为结束的消息（被删除时为null）
+         */
+        public CompletableFuture<MessageDTO> complete(String fallback, boolean interrupted) {
+            String finalContent;
+            synchronized (this) {
+                closed = true;
+                if (pendingFlush != null) {
+                    pendingFlush.cancel(false);
+                    pendingFlush = null;
+                }
+                finalContent = content.length() > 0 ? content.toString() : fallback;
+            }
+            return CompletableFuture.supplyAsync(() -> finish(finalContent, interrupted), writer);
+        }
+
+        private void start() {
+            try {
+                started = messageService.startAiResponse(conversationId);
+            } catch (RuntimeException e) {
+                // 创建失败时退化为结束后一次性保存
+                log.error("创建会话 {} 的AI回复失败", conversationId, e);
+            }
+        }
+
+        private void flush() {
+            String snapshot;
+            synchronized (this) {
+                pendingFlush = null;
+                scheduledLength = content.length();
+                snapshot = content.toString();
+            }
+            if (started == null || snapshot.length() <= savedLength) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                messageService.checkpointAiResponse(started.getId(), snapshot);
+                flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                savedLength = snapshot.length();
+            } catch (RuntimeException e) {
+                log.warn("写入会话 {} 的AI回复检查点失败: {}", conversationId, e.getMessage());
+            }
+        }
+
+        private MessageDTO finish(String finalContent, boolean interrupted) {
+            if (finalContent == null || finalContent.isEmpty()) {
+                if (started != null) {
+                    messageService.discardAiResponse(started);
+                }
+                return null;
+            }
+            if (started == null) {
+                return messageService.addAiResponse(conversationId, finalContent, interrupted);
+            }
+            return messageService.completeAiResponse(started, finalContent, finalContent.length() == savedLength,
+                    interrupted);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.sse.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * 单个SSE连接：持有emitter和有界的待发送事件队列
+ * 队列只由SseDispatcher的写线程消费，保证同一连接同一时刻只有一个写者
+ */
+class SseClient {
+
+    private final String id;
+    private final SseEmitter emitter;
+    private final Deque<SseFrame> queue = new ArrayDeque<>();
+
+    // 是否已有写任务在排空队列
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    // 连接是否已关闭，关闭后不再接收事件
+    private volatile boolean closed;
+
+    // 最近一次成功写入的时间
+    private volatile long lastWriteAt;
+
+    // 是否正在写入及写入开始时间（System.nanoTime），受this保护
+    private boolean writing;
+    private long writeStartedAt;
+
+    // emitter是否已由某一方结束，关闭方和写线程只有一方调用complete
+    private final AtomicBoolean completed = new AtomicBoolean();
+
+    // 发送队列是否处于溢出状态，由队列锁保护
+    private boolean overflowing;
+
+    SseClient(String id, SseEmitter emitter) {
+        this.id = id;
+        this.emitter = emitter;
+        this.lastWriteAt = System.currentTimeMillis();
+    }
+
+    String getId() {
+        return id;
+    }
+
+    SseEmitter getEmitter() {
+        return emitter;
+    }
+
+    Deque<SseFrame> getQueue() {
+        return queue;
+    }
+
+    AtomicBoolean getDraining() {
+        return draining;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 标记连接关闭，之后不会再开始新的写入
+     * @return 是否由本次调用关闭
+     */
+    synchronized boolean markClosed() {
+        if (closed) {
+            return false;
+        }
+        closed = true;
+        return true;
+    }
+
+    /**
+     * 争取结束emitter的权利，只有第一次调用返回true
+     */
+    boolean claimCompletion() {
+        return completed.compareAndSet(false, true);
+    }
+
+    void markWritten() {
+        this.lastWriteAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 开始一次写入，与markClosed互斥
+     * @return 连接已关闭时返回false，不应再写入
+     */
+    synchronized boolean startWrite() {
+        if (closed) {
+            return false;
+        }
+        writing = true;
+        writeStartedAt = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * 结束写入
+     * @return 连接是否在写入期间被关闭，是则由写线程结束emitter
+     */
+    synchronized boolean endWrite() {
+        writing = false;
+        return closed;
+    }
+
+    synchronized boolean isWriting() {
+        return writing;
+    }
+
+    /**
+     * 单次写入是否已持续超过timeoutNanos
+     */
+    synchronized boolean writeExceeds(long now, long timeoutNanos) {
+        return writing && now - writeStartedAt > timeoutNanos;
+    }
+
+    /**
+     * 标记队列溢出，调用方需持有队列锁
+     * @return 是否由未溢出变为溢出
+     */
+    boolean markOverflowing() {
+        boolean started = !overflowing;
+        overflowing = true;
+        return started;
+    }
+
+    /**
+     * 队列已排空，复位溢出状态，调用方需持有队列锁
+     */
+    void clearOverflowing() {
+        overflowing = false;
+    }
+
+    /**
+     * 有待发送的事件，但超过staleAfterMillis没有写出任何数据，视为已失去响应
+     */
+    boolean isStale(long now, long staleAfterMillis) {
+        return queueSize() > 0 && now - lastWriteAt > staleAfterMillis;
+    }
+
+    /**
+     * 当前排队的事件数
+     */
+    int queueSize() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.example.sse.service;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * SSE异步分发器
+ * 每个连接有一个有界队列，由固定大小的写线程池异步排空，慢客户端只会堆积自己的队列，
+ * 不会阻塞调用方（例如Reactor线程）；
+ * 有待发送事件的连接进入就绪队列轮流写出，每轮最多写FRAMES_PER_TURN帧后让出线程；
+ * 单次写入超过期限的连接被标记关闭、不再获得写入机会，阻塞中的写入由容器的写超时
+ * （server.tomcat.connection-timeout）结束，写入返回后再结束emitter
+ */
+@Component
+public class SseDispatcher implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(SseDispatcher.class);
+
+    // 每个连接每轮最多写出的帧数，写完后排到就绪队列末尾
+    private static final int FRAMES_PER_TURN = 16;
+
+    /**
+     * 队列满时的处理策略
+     */
+    public enum OverflowPolicy {
+        // 丢弃最早的事件
+        DROP_OLDEST,
+        // 与队尾同类的流式事件合并内容，无法合并时丢弃最早的事件
+        COALESCE,
+        // 断开慢客户端
+        DISCONNECT
+    }
+
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long writeTimeoutMillis;
+    private final ExecutorService writers;
+    private final ScheduledExecutorService watchdog;
+    private final ObjectMapper objectMapper;
+    private final Timer sendTimer;
+    private final Counter overflows;
+
+    // 正在写入的连接，由看门狗检查是否超过写入期限
+    private final Set<SseClient> writing = ConcurrentHashMap.newKeySet();
+
+    // 发送失败或被断开的连接回调，由SseService清理注册表
+    private Consumer<SseClient> onClientFailure = client -> { };
+
+    public SseDispatcher(@Value("${sse.dispatch.queue-capacity:256}") int queueCapacity,
+                         @Value("${sse.dispatch.overflow-policy:DROP_OLDEST}") OverflowPolicy overflowPolicy,
+                         @Value("${sse.dispatch.writer-threads:4}") int writerThreads,
+                         @Value("${sse.dispatch.write-timeout-ms:10000}") long writeTimeoutMillis,
+                         ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        this.objectMapper = objectMapper;
+        this.sendTimer = Timer.builder("sse.send")
+                .description("向单个连接写出一帧的耗时")
+                .register(meterRegistry);
+        this.overflows = Counter.builder("sse.dispatch.overflow")
+                .description("连接发送队列已满时按溢出策略处理的事件数")
+                .tag("policy", overflowPolicy.name())
+                .register(meterRegistry);
+        // 线程数固定，线程池的任务队列即连接的就绪队列，每个连接同一时刻最多排队或执行一个任务
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.writers = Executors.newFixedThreadPool(writerThreads, r -> {
+            Thread t = new Thread(r, "sse-writer-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sse-write-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(100, Math.min(1000, writeTimeoutMillis / 2));
+        this.watchdog.scheduleWithFixedDelay(this::expireStalledWrites, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    void setOnClientFailure(Consumer<SseClient> onClientFailure) {
+        this.onClientFailure = onClientFailure;
+    }
+
+    /**
+     * 编码事件，结果可写给任意多个连接
+     */
+    public SseFrame encode(String eventName, Object data) {
+        return SseFrame.encode(eventName, data, objectMapper);
+    }
+
+    /**
+     * 编码带ID的事件
+     */
+    public SseFrame encode(Long id, String eventName, Object data) {
+        return SseFrame.encode(id, eventName, data, objectMapper);
+    }
+
+    /**
+     * 编码事件并放入连接的队列
+     */
+    public void dispatch(SseClient client, String eventName, Object data) {
+        dispatch(client, encode(eventName, data));
+    }
+
+    /**
+     * 将已编码的帧放入连接的队列并调度写线程，不会阻塞调用方
+     * 同一帧可以放入多个连接的队列
+     */
+    public void dispatch(SseClient client, SseFrame event) {
+        if (client.isClosed()) {
+            return;
+        }
+        boolean disconnect = false;
+        boolean overflowStarted = false;
+        synchronized (client.getQueue()) {
+            if (client.getQueue().size() >= queueCapacity) {
+                overflows.increment();
+                overflowStarted = client.markOverflowing();
+                switch (overflowPolicy) {
+                    case DISCONNECT:
+                        disconnect = true;
+                        break;
+                    case COALESCE:
+                        if (!coalesce(client, event)) {
+                            client.getQueue().pollFirst();
+                            client.getQueue().offerLast(event);
+                        }
+                        break;
+                    default:
+                        client.getQueue().pollFirst();
+                        client.getQueue().offerLast(event);
+                        break;
+                }
+            } else {
+                client.getQueue().offerLast(event);
+            }
+        }
+        // 每个连接只在开始溢出时记录一次，队列排空后复位
+        if (overflowStarted) {
+            log.warn("客户端 {} 发送队列已满，处理策略: {}", client.getId(), overflowPolicy);
+        }
+        if (disconnect) {
+            fail(client, null);
+            return;
+        }
+        scheduleDrain(client);
+    }
+
+    /**
+     * 尝试把流式内容合并进队尾的同名事件
+     */
+    @SuppressWarnings("unchecked")
+    private boolean coalesce(SseClient client, SseFrame event) {
+        SseFrame tail = client.getQueue().peekLast();
+        if (tail == null || !Objects.equals(tail.getName(), event.getName())
+                || !(tail.getData() instanceof Map) || !(event.getData() instanceof Map)) {
+            return false;
+        }
+        Map<String, Object> tailData = (Map<String, Object>) tail.getData();
+        Map<String, Object> newData = (Map<String, Object>) event.getData();
+        if (!(tailData.get("content") instanceof String) || !(newData.get("content") instanceof String)
+                || !Objects.equals(tailData.get("conversationId"), newData.get("conversationId"))) {
+            return false;
+        }
+        Map<String, Object> merged = new LinkedHashMap<>(newData);
+        merged.put("content", (String) tailData.get("content") + newData.get("content"));
+        client.getQueue().pollLast();
+        // 合并后的帧使用最新事件的ID，重连时不会重复推送已合并的内容
+        client.getQueue().offerLast(encode(event.getId(), event.getName(), merged));
+        return true;
+    }
+
+    private void scheduleDrain(SseClient client) {
+        if (client.getDraining().compareAndSet(false, true)) {
+            writers.execute(() -> drain(client));
+        }
+    }
+
+    /**
+     * 排空队列，同一连接同一时刻只有一个写线程
+     * 本轮写满FRAMES_PER_TURN帧仍有剩余时重新排到就绪队列末尾，让其它连接先写
+     */
+    private void drain(SseClient client) {
+        for (int written = 0; written < FRAMES_PER_TURN; written++) {
+            SseFrame event;
+            synchronized (client.getQueue()) {
+                event = client.getQueue().pollFirst();
+                if (event == null) {
+                    client.clearOverflowing();
+                }
+            }
+            if (event == null) {
+                client.getDraining().set(false);
+                // 释放标记后仍有新事件进入时，重新获取标记继续排空
+                if (client.queueSize() == 0 || !client.getDraining().compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            write(client, event);
+        }
+        writers.execute(() -> drain(client));
+    }
+
+    private void write(SseClient client, SseFrame event) {
+        if (!client.startWrite()) {
+            return;
+        }
+        long start = System.nanoTime();
+        writing.add(client);
+        Exception error = null;
+        boolean closedDuringWrite;
+        try {
+            client.getEmitter().send(event);
+            sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            client.markWritten();
+            log.debug("向客户端 {} 发送消息类型: {}", client.getId(), event.getName());
+        } catch (IOException | IllegalStateException e) {
+            error = e;
+        } finally {
+            writing.remove(client);
+            closedDuringWrite = client.endWrite();
+        }
+        if (closedDuringWrite) {
+            // 写入期间被看门狗或心跳关闭，emitter的锁此时已释放，由写线程结束emitter
+            complete(client);
+        } else if (error != null) {
+            fail(client, error);
+        }
+    }
+
+    /**
+     * 关闭单次写入超过期限的连接
+     * 只做标记和清理，不等待阻塞中的写入：SseEmitter.complete与send使用同一把锁
+     */
+    private void expireStalledWrites() {
+        long now = System.nanoTime();
+        for (SseClient client : writing) {
+            if (!client.isClosed()
+                    && client.writeExceeds(now, TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis))) {
+                log.warn("客户端 {} 单次写入超过 {}ms，断开连接", client.getId(), writeTimeoutMillis);
+                close(client);
+            }
+        }
+    }
+
+    private void fail(SseClient client, Exception e) {
+        if (e != null) {
+            log.error("向客户端 {} 发送消息失败", client.getId(), e);
+        } else {
+            log.warn("客户端 {} 消费过慢，断开连接", client.getId());
+        }
+        close(client);
+    }
+
+    /**
+     * 关闭连接：丢弃待发送事件、结束emitter并通知注册表移除
+     * 不会阻塞调用方：连接正在写入时，emitter由写线程在写入返回后结束
+     */
+    void close(SseClient client) {
+        if (!client.markClosed()) {
+            return;
+        }
+        synchronized (client.getQueue()) {
+            client.getQueue().clear();
+        }
+        if (!client.isWriting()) {
+            complete(client);
+        }
+        onClientFailure.accept(client);
+    }
+
+    private void complete(SseClient client) {
+        if (!client.claimCompletion()) {
+            return;
+        }
+        try {
+            client.getEmitter().complete();
+        } catch (Exception ignored) {
+            // 连接可能已经关闭
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        watchdog.shutdownNow();
+        writers.shutdown();
+        writers.awaitTermination(5, TimeUnit.SECONDS);
+    }
+}
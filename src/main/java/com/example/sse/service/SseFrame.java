@@ -0,0 +1,133 @@
+package com.example.sse.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * 预先编码好的SSE帧（id:/event:/data: 行）
+ * 同一事件只序列化一次，之后把同一份字节写给所有目标连接
+ */
+public final class SseFrame implements SseEmitter.SseEventBuilder {
+
+    private final Long id;
+    private final String name;
+    private final Object data;
+    private final byte[] bytes;
+    private final Set<ResponseBodyEmitter.DataWithMediaType> sendable;
+
+    private SseFrame(Long id, String name, Object data, byte[] bytes) {
+        this.id = id;
+        this.name = name;
+        this.data = data;
+        this.bytes = bytes;
+        this.sendable = Collections.singleton(new ResponseBodyEmitter.DataWithMediaType(bytes, MediaType.TEXT_PLAIN));
+    }
+
+    /**
+     * 编码不带ID的事件
+     */
+    public static SseFrame encode(String name, Object data, ObjectMapper objectMapper) {
+        return encode(null, name, data, objectMapper);
+    }
+
+    /**
+     * 编码事件，字符串原样写出，其它对象序列化为JSON
+     * @param id 事件ID，客户端重连时通过Last-Event-ID带回，为空时不写id行
+     */
+    public static SseFrame encode(Long id, String name, Object data, ObjectMapper objectMapper) {
+        String payload;
+        if (data instanceof String) {
+            payload = (String) data;
+        } else {
+            try {
+                payload = objectMapper.writeValueAsString(data);
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("无法序列化SSE事件: " + name, e);
+            }
+        }
+        StringBuilder sb = new StringBuilder(payload.length() + 48);
+        if (id != null) {
+            sb.append("id:").append(id).append('\n');
+        }
+        if (name != null) {
+            sb.append("event:").append(name).append('\n');
+        }
+        // 多行数据需要拆成多条data行
+        for (String line : payload.split("\n", -1)) {
+            sb.append("data:").append(line).append('\n');
+        }
+        sb.append('\n');
+        return new SseFrame(id, name, data, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 编码注释帧（以冒号开头，客户端会忽略），用于心跳保活
+     */
+    public static SseFrame commentFrame(String text) {
+        return new SseFrame(null, null, null, (":" + text + "\n\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 编码前的原始数据，仅用于合并等需要重新编码的场景
+     */
+    public Object getData() {
+        return data;
+    }
+
+    public int size() {
+        return bytes.length;
+    }
+
+    @Override
+    public Set<ResponseBodyEmitter.DataWithMediaType> build() {
+        return sendable;
+    }
+
+    // 帧在编码后不可变，以下构建方法不支持
+
+    @Override
+    public SseEmitter.SseEventBuilder id(String id) {
+        throw new UnsupportedOperationException("SseFrame is immutable");
+    }
+
+    @Override
+    public SseEmitter.SseEventBuilder name(String eventName) {
+        throw new UnsupportedOperationException("SseFrame is immutable");
+    }
+
+    @Override
+    public SseEmitter.SseEventBuilder reconnectTime(long reconnectTimeMillis) {
+        throw new UnsupportedOperationException("SseFrame is immutable");
+    }
+
+    @Override
+    public SseEmitter.SseEventBuilder comment(String comment) {
+        throw new UnsupportedOperationException("SseFrame is immutable");
+    }
+
+    @Override
+    public SseEmitter.SseEventBuilder data(Object object) {
+        throw new UnsupportedOperationException("SseFrame is immutable");
+    }
+
+    @Override
+    public SseEmitter.SseEventBuilder data(Object object, MediaType mediaType) {
+        throw new UnsupportedOperationException("SseFrame is immutable");
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.sse.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * SSE事件重放缓冲区
+ * 每个主题保留最近的若干帧，客户端断线重连时按Last-Event-ID只补发错过的事件；
+ * 被淘汰的主题记下已发布到的事件ID，重新创建时据此判断重放不完整
+ */
+@Component
+public class SseReplayBuffer {
+
+    private final int bufferSize;
+
+    // 主题 -> 环形缓冲区，按访问顺序淘汰最久未使用的主题
+    private final Map<String, Ring> rings;
+
+    // 被淘汰的主题 -> 淘汰时已发布到的事件ID，数量同样有界，只在rings的锁内访问
+    private final Map<String, Long> evictedTopics;
+
+    // 连淘汰记录也已被丢弃的主题中最大的事件ID，未知主题按此判断
+    private long forgottenUpTo = Long.MIN_VALUE;
+
+    public SseReplayBuffer(@Value("${sse.replay.buffer-size:256}") int bufferSize,
+                           @Value("${sse.replay.max-topics:1024}") int maxTopics) {
+        this.bufferSize = bufferSize;
+        this.evictedTopics = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                if (size() > maxTopics * 4) {
+                    forgottenUpTo = Math.max(forgottenUpTo, eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.rings = Collections.synchronizedMap(new LinkedHashMap<String, Ring>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Ring> eldest) {
+                if (size() > maxTopics) {
+                    evictedTopics.put(eldest.getKey(), eldest.getValue().lastId());
+                    return true;
+                }
+                return false;
+            }
+        });
+    }
+
+    /**
+     * 获取主题的缓冲区，不存在时创建
+     * 发布和重放都在缓冲区对象上同步，保证重放与实时事件之间不丢失、不乱序
+     */
+    public Ring ringFor(String topic) {
+        synchronized (rings) {
+            return rings.computeIfAbsent(topic, k -> {
+                Long evictedUpTo = evictedTopics.remove(k);
+                return new Ring(bufferSize, evictedUpTo != null ? evictedUpTo : forgottenUpTo);
+            });
+        }
+    }
+
+    /**
+     * 单个主题的环形缓冲区
+     */
+    public static final class Ring {
+        private final SseFrame[] frames;
+        private int head;
+        private int size;
+        // 被覆盖的最新帧ID，用于判断重放是否完整
+        private long lastEvictedId = Long.MIN_VALUE;
+
+        private Ring(int capacity, long lastEvictedId) {
+            this.frames = new SseFrame[capacity];
+            this.lastEvictedId = lastEvictedId;
+        }
+
+        /**
+         * 追加一帧，缓冲区满时覆盖最旧的帧
+         */
+        public synchronized void append(SseFrame frame) {
+            if (size < frames.length) {
+                frames[(head + size) % frames.length] = frame;
+                size++;
+            } else {
+                SseFrame evicted = frames[head];
+                if (evicted.getId() != null) {
+                    lastEvictedId = evicted.getId();
+                }
+                frames[head] = frame;
+                head = (head + 1) % frames.length;
+            }
+        }
+
+        /**
+         * 返回ID大于lastEventId的帧，按发布顺序排列
+         */
+        public synchronized List<SseFrame> since(long lastEventId) {
+            List<SseFrame> missed = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                SseFrame frame = frames[(head + i) % frames.length];
+                if (frame.getId() != null && frame.getId() > lastEventId) {
+                    missed.add(frame);
+                }
+            }
+            return missed;
+        }
+
+        /**
+         * 缓冲区中最新的帧ID，没有帧时为最近被覆盖的帧ID
+         */
+        private synchronized long lastId() {
+            long last = lastEvictedId;
+            for (int i = 0; i < size; i++) {
+                Long id = frames[(head + i) % frames.length].getId();
+                if (id != null && id > last) {
+                    last = id;
+                }
+            }
+            return last;
+        }
+
+        /**
+         * lastEventId之后的事件是否都还在缓冲区中
+         */
+        public synchronized boolean covers(long lastEventId) {
+            return lastEvictedId <= lastEventId;
+        }
+    }
+}
@@ -1,19 +1,29 @@
 package com.example.sse.service;
 
-import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import com.example.sse.dto.MessageDTO;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
 @Service
 public class SseService {
 
@@ -22,99 +32,275 @@ public class SseService {
     // 默认超时时间设置为1小时
     private static final long DEFAULT_TIMEOUT = 60 * 60 * 1000L;
     
+    // 心跳帧，所有连接共享
+    private static final SseFrame HEARTBEAT = SseFrame.commentFrame("heartbeat");
+    
+    // 错过的事件超出重放缓冲区时发给客户端的事件，客户端应重新加载数据
+    public static final String RESYNC_EVENT = "重新同步";
+    
+    // 未指定订阅主题的连接归入广播主题，接收所有事件（兼容旧客户端）
+    public static final String BROADCAST_TOPIC = "*";
+    
+    private static final String CONVERSATION_TOPIC_PREFIX = "conversation:";
+    
     // 记录连接的客户端
-    private final Map<String, SseEmitter> emitters = new ConcurrentHashMap<>();
+    private final Map<String, SseClient> emitters = new ConcurrentHashMap<>();
+    
+    // 主题 -> 订阅该主题的连接ID集合
+    private final Map<String, Set<String>> topicSubscribers = new ConcurrentHashMap<>();
+    
+    // 连接ID -> 该连接订阅的主题，用于断开时清理索引
+    private final Map<String, Set<String>> emitterTopics = new ConcurrentHashMap<>();
     
     // 用于生成唯一ID
     private final AtomicLong counter = new AtomicLong();
     
-    // 事件发布器，用于异步处理AI响应
+    // 事件ID序列，以启动时间为起点，服务重启后客户端带回的Last-Event-ID仍小于新事件ID
+    private final AtomicLong eventIds = new AtomicLong(System.currentTimeMillis() * 1000);
+    
+    // 事件发布器，会话主题失去所有订阅者时发布通知
     private final ApplicationEventPublisher eventPublisher;
     
+    // 异步分发器，负责实际写入socket
+    private final SseDispatcher dispatcher;
+    
+    // 响应式订阅者同样接收本服务发布的事件
+    private final ReactiveSseService reactiveSseService;
+    
+    // 最近事件的重放缓冲区，用于断线重连补发
+    private final SseReplayBuffer replayBuffer;
+    
+    // 超过该时间有积压却写不出数据的连接会被清理
+    private final long staleAfterMillis;
+    
+    // 一个事件编码并放入所有订阅连接队列的耗时
+    private final Timer topicFanout;
+    private final Timer broadcastFanout;
+    
     @Autowired
-    public SseService(ApplicationEventPublisher eventPublisher) {
+    public SseService(ApplicationEventPublisher eventPublisher, SseDispatcher dispatcher,
+                      ReactiveSseService reactiveSseService, SseReplayBuffer replayBuffer,
+                      @Value("${sse.heartbeat.stale-after-ms:45000}") long staleAfterMillis,
+                      MeterRegistry meterRegistry) {
         this.eventPublisher = eventPublisher;
+        this.dispatcher = dispatcher;
+        this.reactiveSseService = reactiveSseService;
+        this.replayBuffer = replayBuffer;
+        this.staleAfterMillis = staleAfterMillis;
+        this.dispatcher.setOnClientFailure(client -> removeEmitter(client.getId()));
+        this.topicFanout = fanoutTimer("topic", meterRegistry);
+        this.broadcastFanout = fanoutTimer("all", meterRegistry);
+        Gauge.builder("sse.connections", this, SseService::getActiveConnectionsCount)
+                .description("当前活跃的SSE连接数")
+                .register(meterRegistry);
+        // 主题数量不固定，按主题类型汇总订阅连接数，避免指标标签无限增长
+        for (String type : List.of("broadcast", "conversation", "user")) {
+            Gauge.builder("sse.emitters", this, service -> service.getSubscriberCountByType(type))
+                    .description("按主题类型汇总的订阅连接数")
+                    .tag("topic", type)
+                    .register(meterRegistry);
+        }
+    }
+    
+    private static Timer fanoutTimer(String scope, MeterRegistry meterRegistry) {
+        return Timer.builder("sse.fanout")
+                .description("编码事件并放入所有订阅连接发送队列的耗时")
+                .tag("scope", scope)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 会话主题名
+     */
+    public static String conversationTopic(Integer conversationId) {
+        return CONVERSATION_TOPIC_PREFIX + conversationId;
+    }
+    
+    /**
+     * 用户主题名
+     */
+    public static String userTopic(Integer userId) {
+        return "user:" + userId;
     }
 
     /**
-     * 创建新的SSE连接
+     * 创建新的SSE连接（订阅广播主题）
      */
     public SseEmitter createEmitter() {
+        return createEmitter(Collections.emptySet(), null);
+    }
+
+    /**
+     * 创建新的SSE连接，并订阅指定主题
+     * @param topics 订阅的主题，为空时订阅广播主题
+     * @param lastEventId 客户端重连时带回的Last-Event-ID，不为空时先补发之后的事件
+     */
+    public SseEmitter createEmitter(Collection<String> topics, Long lastEventId) {
+        return createEmitter(new SseEmitter(DEFAULT_TIMEOUT), topics, lastEventId);
+    }
+
+    /**
+     * 注册给定的emitter，基准测试中用于接入不做实际写出的emitter
+     */
+    SseEmitter createEmitter(SseEmitter emitter, Collection<String> topics, Long lastEventId) {
         String emitterId = String.valueOf(counter.incrementAndGet());
-        SseEmitter emitter = new SseEmitter(DEFAULT_TIMEOUT);
         
         // 设置超时回调
         emitter.onTimeout(() -> {
             log.info("SSE连接超时: {}", emitterId);
             emitter.complete();
-            emitters.remove(emitterId);
+            removeEmitter(emitterId);
         });
         
         // 设置完成回调
         emitter.onCompletion(() -> {
             log.info("SSE连接完成: {}", emitterId);
-            emitters.remove(emitterId);
+            removeEmitter(emitterId);
         });
         
         // 设置错误回调
         emitter.onError(ex -> {
             log.error("SSE连接发生错误: {}", emitterId, ex);
             emitter.complete();
-            emitters.remove(emitterId);
+            removeEmitter(emitterId);
         });
         
-        // 发送连接成功消息
-        try {
-            emitter.send(SseEmitter.event()
-                    .name("connect")
-                    .data("连接成功 - ID: " + emitterId));
-        } catch (IOException e) {
-            log.error("发送连接成功消息失败", e);
-            emitter.complete();
-            return emitter;
-        }
+        SseClient client = new SseClient(emitterId, emitter);
         
-        // 将emitter存储在map中
-        emitters.put(emitterId, emitter);
-        log.info("新的SSE连接已创建: {}, 当前连接数: {}", emitterId, emitters.size());
+        // 发送连接成功消息，与后续事件走同一队列以保证顺序
+        dispatcher.dispatch(client, "connect", "连接成功 - ID: " + emitterId);
+        
+        // 将emitter存储在map中，并建立主题索引
+        Set<String> subscribed = ConcurrentHashMap.newKeySet();
+        if (topics == null || topics.isEmpty()) {
+            subscribed.add(BROADCAST_TOPIC);
+        } else {
+            subscribed.addAll(topics);
+        }
+        emitters.put(emitterId, client);
+        emitterTopics.put(emitterId, subscribed);
+        for (String topic : subscribed) {
+            if (lastEventId == null || BROADCAST_TOPIC.equals(topic)) {
+                subscribe(topic, emitterId);
+                continue;
+            }
+            // 补发与加入订阅在同一把锁内完成，期间发布的事件会排在补发事件之后
+            SseReplayBuffer.Ring ring = replayBuffer.ringFor(topic);
+            synchronized (ring) {
+                if (!ring.covers(lastEventId)) {
+                    // 缓冲区已无法补齐，通知客户端重新加载，不补发残缺的事件
+                    log.warn("客户端 {} 错过的事件超出主题 {} 的重放缓冲区，通知其重新同步", emitterId, topic);
+                    dispatcher.dispatch(client, RESYNC_EVENT, Map.of("topic", topic));
+                    subscribe(topic, emitterId);
+                    continue;
+                }
+                List<SseFrame> missed = ring.since(lastEventId);
+                missed.forEach(frame -> dispatcher.dispatch(client, frame));
+                subscribe(topic, emitterId);
+                log.info("向客户端 {} 补发主题 {} 的 {} 个事件", emitterId, topic, missed.size());
+            }
+        }
+        log.info("新的SSE连接已创建: {}, 订阅主题: {}, 当前连接数: {}", emitterId, subscribed, emitters.size());
         
         return emitter;
     }
 
+    /**
+     * 加入主题的订阅集合
+     * 在compute内完成加入，不会加入到removeEmitter刚清空并移除的集合中
+     */
+    private void subscribe(String topic, String emitterId) {
+        topicSubscribers.compute(topic, (k, ids) -> {
+            if (ids == null) {
+                ids = ConcurrentHashMap.newKeySet();
+            }
+            ids.add(emitterId);
+            return ids;
+        });
+    }
+
+    /**
+     * 移除连接并清理主题索引
+     */
+    private void removeEmitter(String emitterId) {
+        SseClient client = emitters.remove(emitterId);
+        if (client != null) {
+            client.markClosed();
+        }
+        Set<String> topics = emitterTopics.remove(emitterId);
+        if (topics == null) {
+            return;
+        }
+        for (String topic : topics) {
+            boolean[] emptied = new boolean[1];
+            topicSubscribers.computeIfPresent(topic, (k, ids) -> {
+                ids.remove(emitterId);
+                emptied[0] = ids.isEmpty();
+                return emptied[0] ? null : ids;
+            });
+            // 会话的最后一个订阅者断开，通知进行中的生成
+            if (emptied[0] && topic.startsWith(CONVERSATION_TOPIC_PREFIX)) {
+                eventPublisher.publishEvent(new ConversationUnsubscribedEvent(
+                        Integer.valueOf(topic.substring(CONVERSATION_TOPIC_PREFIX.length()))));
+            }
+        }
+    }
+
     /**
      * 向所有客户端发送消息
      */
     public void sendToAll(String eventName, Object data) {
-        emitters.forEach((id, emitter) -> {
-            try {
-                emitter.send(SseEmitter.event()
-                        .name(eventName)
-                        .data(data));
-                log.info("向客户端 {} 发送消息类型: {}", id, eventName);
-            } catch (IOException e) {
-                log.error("向客户端 {} 发送消息失败", id, e);
-                emitter.complete();
-                emitters.remove(id);
+        long start = System.nanoTime();
+        // 只序列化一次，所有连接共享同一帧
+        long id = eventIds.incrementAndGet();
+        SseFrame frame = dispatcher.encode(id, eventName, data);
+        emitters.values().forEach(client -> dispatcher.dispatch(client, frame));
+        reactiveSseService.publishToAll(id, eventName, data);
+        broadcastFanout.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * 向订阅了指定主题的客户端发送消息，广播主题的订阅者同样会收到
+     * 主题事件会写入重放缓冲区，供断线重连的客户端补发
+     */
+    public void sendToTopic(String topic, String eventName, Object data) {
+        long start = System.nanoTime();
+        long id = eventIds.incrementAndGet();
+        SseFrame frame = dispatcher.encode(id, eventName, data);
+        if (BROADCAST_TOPIC.equals(topic)) {
+            sendToSubscribers(topic, frame);
+        } else {
+            SseReplayBuffer.Ring ring = replayBuffer.ringFor(topic);
+            synchronized (ring) {
+                ring.append(frame);
+                sendToSubscribers(topic, frame);
             }
-        });
+            sendToSubscribers(BROADCAST_TOPIC, frame);
+        }
+        reactiveSseService.publish(id, topic, eventName, data);
+        topicFanout.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+    
+    private void sendToSubscribers(String topic, SseFrame frame) {
+        Set<String> ids = topicSubscribers.get(topic);
+        if (ids == null) {
+            return;
+        }
+        for (String id : ids) {
+            SseClient client = emitters.get(id);
+            if (client != null) {
+                dispatcher.dispatch(client, frame);
+            }
+        }
     }
     
     /**
      * 向特定客户端发送消息
      */
     public void sendToClient(String clientId, String eventName, Object data) {
-        SseEmitter emitter = emitters.get(clientId);
-        if (emitter != null) {
-            try {
-                emitter.send(SseEmitter.event()
-                        .name(eventName)
-                        .data(data));
-                log.info("向客户端 {} 发送消息类型: {}", clientId, eventName);
-            } catch (IOException e) {
-                log.error("向客户端 {} 发送消息失败", clientId, e);
-                emitter.complete();
-                emitters.remove(clientId);
-            }
+        SseClient client = emitters.get(clientId);
+        if (client != null) {
+            dispatcher.dispatch(client, eventName, data);
         } else {
             log.warn("客户端 {} 不存在或已断开连接", clientId);
         }
@@ -140,13 +326,66 @@ public class SseService {
      * 发送新消息通知
      */
     public void sendMessageNotification(MessageDTO messageDTO) {
-        sendToAll("新消息", messageDTO);
+        sendToTopic(conversationTopic(messageDTO.getConversationId()), "新消息", messageDTO);
+    }
+    
+    /**
+     * 定时发送心跳并清理失去响应的连接
+     * 心跳是SSE注释帧，客户端不会触发事件；对端已断开的连接会在写心跳时失败并被移除，
+     * 半开连接写不出数据，积压超过staleAfterMillis后由这里主动关闭；
+     * 关闭和分发都不会阻塞在写入上，不会拖住共用的调度线程
+     */
+    @Scheduled(fixedDelayString = "${sse.heartbeat.interval-ms:15000}")
+    public void heartbeat() {
+        long now = System.currentTimeMillis();
+        int reaped = 0;
+        for (SseClient client : emitters.values()) {
+            if (client.isStale(now, staleAfterMillis)) {
+                log.warn("SSE连接 {} 超过 {}ms 未写出数据，关闭连接", client.getId(), staleAfterMillis);
+                dispatcher.close(client);
+                reaped++;
+            } else {
+                dispatcher.dispatch(client, HEARTBEAT);
+            }
+        }
+        if (reaped > 0) {
+            log.info("清理失去响应的SSE连接 {} 个，当前连接数: {}", reaped, getActiveConnectionsCount());
+        }
     }
     
     /**
      * 获取当前活跃连接数
      */
     public int getActiveConnectionsCount() {
-        return emitters.size();
+        return (int) emitters.values().stream().filter(client -> !client.isClosed()).count();
+    }
+    
+    /**
+     * 获取指定主题的订阅连接数
+     */
+    public int getSubscriberCount(String topic) {
+        Set<String> ids = topicSubscribers.get(topic);
+        return ids == null ? 0 : ids.size();
+    }
+    
+    /**
+     * 获取某一类主题（broadcast、conversation、user）的订阅连接总数
+     */
+    public int getSubscriberCountByType(String type) {
+        int count = 0;
+        for (Map.Entry<String, Set<String>> entry : topicSubscribers.entrySet()) {
+            if (type.equals(topicType(entry.getKey()))) {
+                count += entry.getValue().size();
+            }
+        }
+        return count;
+    }
+    
+    private static String topicType(String topic) {
+        if (BROADCAST_TOPIC.equals(topic)) {
+            return "broadcast";
+        }
+        int separator = topic.indexOf(':');
+        return separator < 0 ? topic : topic.substring(0, separator);
     }
 } 
\ No newline at end of file
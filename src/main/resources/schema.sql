@@ -6,9 +6,19 @@ CREATE TABLE IF NOT EXISTS `conversations` (
   `created_at` timestamp NULL DEFAULT CURRENT_TIMESTAMP,
   `updated_at` timestamp NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
   `status` tinyint NOT NULL DEFAULT '1',
-  PRIMARY KEY (`id`)
+  `message_count` int NOT NULL DEFAULT '0',
+  `last_message_preview` varchar(64) COLLATE utf8mb4_unicode_ci DEFAULT NULL,
+  `last_message_at` timestamp NULL DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  KEY `idx_user_status_updated` (`user_id`, `status`, `updated_at`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
 
+-- 已有的conversations表补充会话列表使用的冗余列（列已存在时报错并跳过）
+ALTER TABLE `conversations` ADD COLUMN `message_count` int NOT NULL DEFAULT '0';
+ALTER TABLE `conversations` ADD COLUMN `last_message_preview` varchar(64) COLLATE utf8mb4_unicode_ci DEFAULT NULL;
+ALTER TABLE `conversations` ADD COLUMN `last_message_at` timestamp NULL DEFAULT NULL;
+ALTER TABLE `conversations` ADD KEY `idx_user_status_updated` (`user_id`, `status`, `updated_at`);
+
 -- 创建messages表
 CREATE TABLE IF NOT EXISTS `messages` (
   `id` int NOT NULL AUTO_INCREMENT,
@@ -19,5 +29,20 @@ CREATE TABLE IF NOT EXISTS `messages` (
   `status` tinyint NOT NULL DEFAULT '1',
   PRIMARY KEY (`id`),
   KEY `conversation_id` (`conversation_id`),
+  KEY `idx_conversation_created` (`conversation_id`, `created_at`, `id`),
   CONSTRAINT `messages_ibfk_1` FOREIGN KEY (`conversation_id`) REFERENCES `conversations` (`id`) ON DELETE CASCADE
-) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci; 
\ No newline at end of file
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+-- 已有的messages表补充分页查询使用的索引（索引已存在时报错并跳过）
+ALTER TABLE `messages` ADD KEY `idx_conversation_created` (`conversation_id`, `created_at`, `id`);
+
+-- 回填尚未统计的会话（只处理有消息但还没有最后消息时间的会话）
+UPDATE `conversations` c SET
+  c.`message_count` = (SELECT COUNT(*) FROM `messages` m WHERE m.`conversation_id` = c.`id`),
+  c.`last_message_at` = (SELECT MAX(m.`created_at`) FROM `messages` m WHERE m.`conversation_id` = c.`id`),
+  c.`last_message_preview` = (
+    SELECT CASE WHEN CHAR_LENGTH(m.`content`) > 50 THEN CONCAT(LEFT(m.`content`, 47), '...') ELSE m.`content` END
+    FROM `messages` m WHERE m.`conversation_id` = c.`id`
+    ORDER BY m.`created_at` DESC, m.`id` DESC LIMIT 1)
+WHERE c.`last_message_at` IS NULL
+  AND EXISTS (SELECT 1 FROM `messages` m WHERE m.`conversation_id` = c.`id`);
@@ -0,0 +1,75 @@
+package com.example.sse.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import com.example.sse.service.MessageService;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+// 异步请求超时设得很小，导出不应受其限制
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.mvc.async.request-timeout=100",
+        "messages.export.timeout-ms=10000"
+})
+class MessageControllerTest {
+
+    @SpringBootConfiguration
+    @EnableAutoConfiguration(exclude = {DataSourceAutoConfiguration.class, HibernateJpaAutoConfiguration.class})
+    @Import(MessageController.class)
+    static class Config {
+    }
+
+    @MockBean
+    private MessageService messageService;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    void testExportStreamsPastAsyncRequestTimeout() throws Exception {
+        when(messageService.isOwner(1, 1)).thenReturn(true);
+        doAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(2);
+            out.write("{\"id\":1}\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            // 导出时间超过异步请求超时（Tomcat约每秒检查一次超时）
+            Thread.sleep(2500);
+            out.write("{\"id\":2}\n".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(messageService).exportMessages(eq(1), eq(1), any(OutputStream.class));
+
+        ResponseEntity<String> response = restTemplate.getForEntity(
+                "/api/messages/export?userId=1&conversationId=1", String.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("application/x-ndjson", response.getHeaders().getContentType().toString());
+        assertEquals("{\"id\":1}\n{\"id\":2}\n", response.getBody());
+    }
+
+    @Test
+    void testExportOfForeignConversationNotFound() throws Exception {
+        when(messageService.isOwner(2, 1)).thenReturn(false);
+
+        ResponseEntity<String> response = restTemplate.getForEntity(
+                "/api/messages/export?userId=1&conversationId=2", String.class);
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        verify(messageService, never()).exportMessages(any(), any(), any());
+    }
+}
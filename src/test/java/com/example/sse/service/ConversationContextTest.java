@@ -0,0 +1,91 @@
+package com.example.sse.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+
+import com.example.sse.model.Message;
+import com.example.sse.repository.MessageRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ConversationContextTest {
+
+    private MessageRepository messageRepository;
+    private ConversationContext context;
+
+    @BeforeEach
+    void setUp() {
+        messageRepository = mock(MessageRepository.class);
+        // 预算10个token，最多保留4轮
+        context = new ConversationContext(10, 4, 100, 60000, messageRepository);
+    }
+
+    private static Message message(int senderType, String content) {
+        Message message = new Message();
+        message.setSenderType(senderType);
+        message.setContent(content);
+        return message;
+    }
+
+    @Test
+    void testLoadsOnceAndAppendsRecordedTurns() {
+        // 数据库按时间倒序返回最近的消息
+        when(messageRepository.findRecentWithContent(eq(1), eq(Message.STATUS_COMPLETE), any(Pageable.class)))
+                .thenReturn(new ArrayList<>(List.of(message(Message.SENDER_USER, "你好"))));
+
+        List<Map<String, String>> first = context.build(1, "你好");
+        assertEquals(List.of(Map.of("role", "user", "content", "你好")), first);
+
+        context.record(1, Message.SENDER_AI, "您好");
+        context.record(1, Message.SENDER_USER, "再见");
+        List<Map<String, String>> second = context.build(1, "再见");
+
+        // 历史只从数据库加载一次，之后的消息直接追加
+        verify(messageRepository, times(1)).findRecentWithContent(eq(1), eq(Message.STATUS_COMPLETE), any(Pageable.class));
+        assertEquals(3, second.size());
+        assertEquals("assistant", second.get(1).get("role"));
+        assertEquals("再见", second.get(2).get("content"));
+    }
+
+    @Test
+    void testTrimsToTokenBudgetKeepingNewest() {
+        when(messageRepository.findRecentWithContent(eq(2), eq(Message.STATUS_COMPLETE), any(Pageable.class)))
+                .thenReturn(new ArrayList<>());
+
+        context.build(2, null);
+        context.record(2, Message.SENDER_USER, "一二三四五六");
+        context.record(2, Message.SENDER_AI, "七八九十");
+        List<Map<String, String>> window = context.build(2, "甲乙丙丁");
+
+        // 6+4+4超出预算，最早的一轮被截掉；当前消息未记录时补在最后
+        assertEquals(2, window.size());
+        assertEquals("七八九十", window.get(0).get("content"));
+        assertEquals("甲乙丙丁", window.get(1).get("content"));
+    }
+
+    @Test
+    void testSkipsEmptyTurns() {
+        when(messageRepository.findRecentWithContent(eq(3), eq(Message.STATUS_COMPLETE), any(Pageable.class)))
+                .thenReturn(new ArrayList<>(List.of(message(Message.SENDER_USER, "你好"))));
+
+        context.build(3, null);
+        // 空的AI回复不进入上下文，当前用户消息不会因此被重复添加
+        context.record(3, Message.SENDER_AI, "");
+        List<Map<String, String>> window = context.build(3, "你好");
+
+        assertEquals(List.of(Map.of("role", "user", "content", "你好")), window);
+    }
+
+    @Test
+    void testEstimateTokens() {
+        assertEquals(2, ConversationContext.estimateTokens("你好"));
+        assertEquals(2, ConversationContext.estimateTokens("hello"));
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.sse.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.sse.model.Conversation;
+import com.example.sse.repository.ConversationRepository;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ConversationMetadataCacheTest {
+
+    private ConversationRepository conversationRepository;
+    private ConversationMetadataCache cache;
+
+    @BeforeEach
+    void setUp() {
+        conversationRepository = mock(ConversationRepository.class);
+        cache = new ConversationMetadataCache(100, 60000, conversationRepository);
+    }
+
+    private static Conversation conversation(int id, int userId, String title) {
+        Conversation conversation = new Conversation();
+        conversation.setId(id);
+        conversation.setUserId(userId);
+        conversation.setTitle(title);
+        conversation.setStatus(1);
+        return conversation;
+    }
+
+    @Test
+    void testOwnershipLoadedOnce() {
+        when(conversationRepository.findById(1)).thenReturn(Optional.of(conversation(1, 7, "旧标题")));
+
+        assertTrue(cache.isOwner(1, 7));
+        assertFalse(cache.isOwner(1, 8));
+        assertTrue(cache.exists(1));
+        // 之后的校验都命中缓存
+        verify(conversationRepository, times(1)).findById(1);
+    }
+
+    @Test
+    void testMissingConversationNotCached() {
+        when(conversationRepository.findById(2)).thenReturn(Optional.empty());
+
+        assertFalse(cache.exists(2));
+        assertFalse(cache.isOwner(2, 7));
+        verify(conversationRepository, times(2)).findById(2);
+    }
+
+    @Test
+    void testInvalidateReloads() {
+        when(conversationRepository.findById(1))
+                .thenReturn(Optional.of(conversation(1, 7, "旧标题")))
+                .thenReturn(Optional.of(conversation(1, 7, "新标题")));
+
+        assertEquals("旧标题", cache.get(1).orElseThrow().getTitle());
+        cache.invalidate(1);
+        assertEquals("新标题", cache.get(1).orElseThrow().getTitle());
+    }
+}
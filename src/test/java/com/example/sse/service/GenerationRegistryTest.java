@@ -0,0 +1,97 @@
+package com.example.sse.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import reactor.core.publisher.Sinks;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class GenerationRegistryTest {
+
+    private SseService sseService;
+    private ReactiveSseService reactiveSseService;
+    private GenerationScheduler scheduler;
+    private GenerationRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        sseService = mock(SseService.class);
+        reactiveSseService = mock(ReactiveSseService.class);
+        scheduler = new GenerationScheduler(1, 3, 1000, sseService, new SimpleMeterRegistry());
+        registry = new GenerationRegistry(0, scheduler, sseService, reactiveSseService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.destroy();
+    }
+
+    @Test
+    void testCancelEndsStreamWithPartialOutput() {
+        Sinks.Many<String> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        List<String> received = new ArrayList<>();
+        AtomicBoolean completed = new AtomicBoolean();
+        registry.cancellable(1, upstream.asFlux(), false)
+                .subscribe(received::add, error -> { }, () -> completed.set(true));
+
+        upstream.tryEmitNext("你");
+        upstream.tryEmitNext("好");
+        assertTrue(registry.isGenerating(1));
+        assertTrue(registry.cancel(1));
+
+        // 上游被取消，下游以已收到的部分正常结束
+        assertTrue(completed.get());
+        assertEquals(List.of("你", "好"), received);
+        assertEquals(Sinks.EmitResult.FAIL_CANCELLED, upstream.tryEmitNext("!"));
+        assertFalse(registry.isGenerating(1));
+        assertFalse(registry.cancel(1));
+    }
+
+    @Test
+    void testCancelDropsQueuedJobs() {
+        AtomicInteger dropped = new AtomicInteger();
+        List<Runnable> releases = new ArrayList<>();
+        scheduler.submit(1, 10, releases::add, dropped::incrementAndGet);
+        scheduler.submit(1, 20, releases::add, dropped::incrementAndGet);
+        scheduler.submit(2, 20, releases::add, dropped::incrementAndGet);
+        assertEquals(2, scheduler.getQueuedCount());
+
+        // 只移除该会话排队中的任务，正在进行的不受影响
+        assertTrue(registry.cancel(20));
+        assertEquals(2, dropped.get());
+        assertEquals(0, scheduler.getQueuedCount());
+        assertEquals(1, scheduler.getInFlightCount());
+    }
+
+    @Test
+    void testAutoCancelOnlyWhenNoSubscribersRemain() throws InterruptedException {
+        AtomicBoolean topicCompleted = new AtomicBoolean();
+        AtomicBoolean directCompleted = new AtomicBoolean();
+        registry.cancellable(5, Sinks.many().unicast().<String>onBackpressureBuffer().asFlux(), true)
+                .subscribe(chunk -> { }, error -> { }, () -> topicCompleted.set(true));
+        registry.cancellable(5, Sinks.many().unicast().<String>onBackpressureBuffer().asFlux(), false)
+                .subscribe(chunk -> { }, error -> { }, () -> directCompleted.set(true));
+
+        when(sseService.getSubscriberCount(SseService.conversationTopic(5))).thenReturn(1);
+        registry.onConversationUnsubscribed(new ConversationUnsubscribedEvent(5));
+        Thread.sleep(100);
+        assertFalse(topicCompleted.get());
+
+        // 订阅者全部断开后只取消经主题推送的生成
+        when(sseService.getSubscriberCount(SseService.conversationTopic(5))).thenReturn(0);
+        registry.onConversationUnsubscribed(new ConversationUnsubscribedEvent(5));
+        Thread.sleep(100);
+        assertTrue(topicCompleted.get());
+        assertFalse(directCompleted.get());
+    }
+}
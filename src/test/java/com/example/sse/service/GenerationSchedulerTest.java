@@ -0,0 +1,134 @@
+package com.example.sse.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class GenerationSchedulerTest {
+
+    private SseService sseService;
+    private GenerationScheduler scheduler;
+
+    // 已开始的任务：会话ID和对应的释放回调
+    private final List<Integer> started = new ArrayList<>();
+    private final List<Runnable> releases = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        sseService = mock(SseService.class);
+        scheduler = new GenerationScheduler(1, 3, 1000, sseService, new SimpleMeterRegistry());
+    }
+
+    private boolean submit(int userId, int conversationId) {
+        return scheduler.submit(userId, conversationId, release -> {
+            started.add(conversationId);
+            releases.add(release);
+        });
+    }
+
+    @Test
+    void testRoundRobinAcrossUsers() {
+        // 用户1先提交三个任务，用户2提交一个
+        assertTrue(submit(1, 11));
+        assertTrue(submit(1, 12));
+        assertTrue(submit(1, 13));
+        assertTrue(submit(2, 21));
+        assertEquals(List.of(11), started);
+
+        releases.get(0).run();
+        releases.get(1).run();
+        releases.get(2).run();
+
+        // 用户2的任务不必等用户1的任务全部完成
+        assertEquals(List.of(11, 12, 21, 13), started);
+        assertEquals(0, scheduler.getQueuedCount());
+    }
+
+    @Test
+    void testRejectsWhenQueueFull() {
+        assertTrue(submit(1, 11));
+        assertTrue(submit(2, 21));
+        assertTrue(submit(3, 31));
+        assertTrue(submit(4, 41));
+        assertTrue(scheduler.isSaturated());
+        assertFalse(submit(5, 51));
+
+        // 释放名额后可以再次提交
+        releases.get(0).run();
+        assertFalse(scheduler.isSaturated());
+        assertTrue(submit(5, 51));
+    }
+
+    @Test
+    void testReservationHoldsSlotUntilSubmitted() {
+        // 1个进行中、3个排队，共4个名额
+        assertTrue(submit(1, 11));
+        assertTrue(submit(2, 21));
+        GenerationScheduler.Reservation first = scheduler.reserve();
+        GenerationScheduler.Reservation second = scheduler.reserve();
+        assertNotNull(first);
+        assertNotNull(second);
+
+        // 预留的名额不能被其它请求占用
+        assertNull(scheduler.reserve());
+        assertFalse(submit(3, 31));
+        assertTrue(scheduler.isSaturated());
+
+        // 预留后提交不会被拒绝
+        first.submit(4, 41, release -> started.add(41), () -> { });
+        assertEquals(2, scheduler.getQueuedCount());
+
+        // 放弃预留后名额可以再用
+        second.cancel();
+        assertTrue(submit(5, 51));
+        assertThrows(IllegalStateException.class, () -> first.submit(4, 42, release -> { }, () -> { }));
+    }
+
+    @Test
+    void testReservedStreamIsNotRejected() {
+        GenerationScheduler.Reservation reservation = scheduler.reserve();
+        assertTrue(submit(1, 11));
+        assertTrue(submit(2, 21));
+        assertTrue(submit(3, 31));
+        assertTrue(scheduler.isSaturated());
+
+        // 未预留的流在订阅时以队列已满结束，预留的流正常排队
+        assertThrows(GenerationQueueFullException.class,
+                () -> scheduler.schedule(4, 41, Flux.just("x")).blockLast());
+        List<String> received = new ArrayList<>();
+        reservation.schedule(5, 51, Flux.just("a", "b")).subscribe(received::add);
+        assertEquals(3, scheduler.getQueuedCount());
+
+        // 前面的任务依次完成后轮到预留的流
+        for (int i = 0; i < 3; i++) {
+            releases.get(i).run();
+        }
+        assertEquals(List.of("a", "b"), received);
+    }
+
+    @Test
+    void testQueuedClientsReceivePosition() {
+        submit(1, 11);
+        submit(2, 21);
+        verify(sseService).sendToTopic(eq(SseService.conversationTopic(21)), eq(GenerationScheduler.QUEUE_EVENT), any());
+    }
+
+    @Test
+    void testReleaseIsIdempotent() {
+        submit(1, 11);
+        submit(2, 21);
+        releases.get(0).run();
+        releases.get(0).run();
+        assertEquals(1, scheduler.getInFlightCount());
+    }
+}
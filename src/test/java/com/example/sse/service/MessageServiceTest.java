@@ -0,0 +1,82 @@
+package com.example.sse.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.example.sse.dto.MessageDTO;
+import com.example.sse.model.Message;
+import com.example.sse.repository.ConversationRepository;
+import com.example.sse.repository.MessageRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class MessageServiceTest {
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private MessageRepository messageRepository;
+    private MessageService messageService;
+
+    @BeforeEach
+    void setUp() {
+        messageRepository = mock(MessageRepository.class);
+        messageService = new MessageService(mock(SseService.class), mock(OllamaService.class), messageRepository,
+                mock(ConversationRepository.class), mock(ConversationContext.class), mock(MessageWriter.class),
+                mock(ConversationMetadataCache.class), objectMapper);
+    }
+
+    private static Stream<MessageDTO> messages(int count) {
+        LocalDateTime createdAt = LocalDateTime.of(2024, 1, 1, 0, 0);
+        return IntStream.rangeClosed(1, count).mapToObj(i -> new MessageDTO(i, 1,
+                i % 2 == 1 ? Message.SENDER_USER : Message.SENDER_AI, "内容" + i, createdAt.plusSeconds(i),
+                Message.STATUS_COMPLETE));
+    }
+
+    @Test
+    void testExportWritesOneJsonObjectPerLine() throws IOException {
+        when(messageRepository.streamByConversationId(1)).thenReturn(messages(3));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        messageService.exportMessages(1, 1, out);
+
+        String body = out.toString(StandardCharsets.UTF_8);
+        assertTrue(body.endsWith("\n"));
+        String[] lines = body.split("\n");
+        assertEquals(3, lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            // 每行都以对象开头，没有根值之间的空格分隔符
+            assertTrue(lines[i].startsWith("{"), lines[i]);
+            JsonNode node = objectMapper.readTree(lines[i]);
+            assertEquals(i + 1, node.get("id").asInt());
+            assertEquals("内容" + (i + 1), node.get("content").asText());
+        }
+    }
+
+    @Test
+    void testExportFlushesInBatches() throws IOException {
+        when(messageRepository.streamByConversationId(1)).thenReturn(messages(1000));
+        int[] flushes = new int[1];
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                flushes[0]++;
+            }
+        };
+
+        messageService.exportMessages(1, 1, out);
+
+        // 每500条刷出一次，加上结束时的一次
+        assertTrue(flushes[0] <= 3, "flush次数: " + flushes[0]);
+        assertEquals(1000, out.toString(StandardCharsets.UTF_8).split("\n").length);
+    }
+}
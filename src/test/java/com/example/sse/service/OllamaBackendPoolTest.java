@@ -0,0 +1,120 @@
+package com.example.sse.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OllamaBackendPoolTest {
+
+    private DisposableServer healthyServer;
+    private DisposableServer flakyServer;
+
+    // 为false时flakyServer返回503
+    private final AtomicBoolean flakyUp = new AtomicBoolean(true);
+
+    @AfterEach
+    void tearDown() {
+        healthyServer.disposeNow();
+        flakyServer.disposeNow();
+    }
+
+    private DisposableServer stub(String name, AtomicBoolean up) {
+        return HttpServer.create()
+                .port(0)
+                .route(routes -> routes
+                        .get("/api/tags", (req, res) -> up.get()
+                                ? res.sendString(Mono.just("{\"models\":[]}"))
+                                : res.status(503).send())
+                        .post("/api/generate", (req, res) -> up.get()
+                                ? res.sendString(Mono.just("{\"response\":\"" + name + "\"}"))
+                                : res.status(503).send()))
+                .bindNow();
+    }
+
+    private static OllamaBackend backend(DisposableServer server) {
+        String url = "http://localhost:" + server.port();
+        return new OllamaBackend(url, WebClient.create(url));
+    }
+
+    private static String generate(OllamaBackendPool pool) {
+        return pool.call(client -> client.post()
+                        .uri("/api/generate")
+                        .retrieve()
+                        .bodyToMono(String.class))
+                .onErrorReturn("error")
+                .block();
+    }
+
+    @Test
+    void testEjectsFailingBackendAndReadmitsAfterProbe() {
+        healthyServer = stub("healthy", new AtomicBoolean(true));
+        flakyServer = stub("flaky", flakyUp);
+        OllamaBackend healthy = backend(healthyServer);
+        OllamaBackend flaky = backend(flakyServer);
+        OllamaBackendPool pool = new OllamaBackendPool(List.of(flaky, healthy), 2, Duration.ofSeconds(2));
+
+        flakyUp.set(false);
+        for (int i = 0; i < 4; i++) {
+            generate(pool);
+        }
+        assertFalse(flaky.isHealthy());
+        assertTrue(healthy.isHealthy());
+
+        // 摘除后请求只会路由到健康节点
+        for (int i = 0; i < 5; i++) {
+            assertTrue(generate(pool).contains("healthy"));
+        }
+
+        // 节点恢复后，探活成功即重新加入
+        flakyUp.set(true);
+        assertTrue(pool.probe(healthy).block());
+        assertTrue(pool.probe(flaky).block());
+        assertTrue(flaky.isHealthy());
+    }
+
+    @Test
+    void testRoutesToLeastLoadedBackend() {
+        healthyServer = stub("a", new AtomicBoolean(true));
+        flakyServer = stub("b", flakyUp);
+        OllamaBackend a = backend(healthyServer);
+        OllamaBackend b = backend(flakyServer);
+        OllamaBackendPool pool = new OllamaBackendPool(List.of(a, b), 2, Duration.ofSeconds(2));
+
+        a.acquire();
+        assertSame(b, pool.choose());
+        b.acquire();
+        b.acquire();
+        assertSame(a, pool.choose());
+    }
+
+    @Test
+    void testPinsAffinityKeyUntilBackendEjected() {
+        healthyServer = stub("a", new AtomicBoolean(true));
+        flakyServer = stub("b", flakyUp);
+        OllamaBackend a = backend(healthyServer);
+        OllamaBackend b = backend(flakyServer);
+        OllamaBackendPool pool = new OllamaBackendPool(List.of(a, b), 2, Duration.ofSeconds(2));
+
+        OllamaBackend pinned = pool.choose(42);
+        OllamaBackend other = pinned == a ? b : a;
+        // 固定节点负载更高时同一会话仍路由到它
+        pinned.acquire();
+        pinned.acquire();
+        assertSame(pinned, pool.choose(42));
+
+        // 固定节点被摘除后改为固定到其它节点
+        pinned.markUnhealthy();
+        assertSame(other, pool.choose(42));
+        assertSame(other, pool.getPinned(42));
+    }
+}
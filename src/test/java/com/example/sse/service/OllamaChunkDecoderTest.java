@@ -0,0 +1,63 @@
+package com.example.sse.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import reactor.core.publisher.Flux;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OllamaChunkDecoderTest {
+
+    private final OllamaChunkDecoder decoder = new OllamaChunkDecoder();
+
+    private static Flux<DataBuffer> split(String body, int size) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        List<DataBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < bytes.length; i += size) {
+            int len = Math.min(size, bytes.length - i);
+            byte[] part = new byte[len];
+            System.arraycopy(bytes, i, part, 0, len);
+            buffers.add(DefaultDataBufferFactory.sharedInstance.wrap(part));
+        }
+        return Flux.fromIterable(buffers);
+    }
+
+    @Test
+    void testDecodeLinesSplitAcrossBuffers() {
+        String body = "{\"model\":\"llama3.2\",\"message\":{\"role\":\"assistant\",\"content\":\"你好\"},\"done\":false}\n"
+                + "{\"model\":\"llama3.2\",\"message\":{\"role\":\"assistant\",\"content\":\"，世界\",\"images\":null},\"done\":false}\n"
+                + "{\"model\":\"llama3.2\",\"message\":{\"role\":\"assistant\",\"content\":\"\"},\"done\":true,"
+                + "\"total_duration\":5000,\"load_duration\":100,\"prompt_eval_count\":12,"
+                + "\"prompt_eval_duration\":300,\"eval_count\":42,\"eval_duration\":4000}\n";
+
+        // 按很小的块切分，覆盖多字节字符和字段名被截断的情况
+        for (int size : new int[] {1, 3, 7, 64, body.length()}) {
+            List<OllamaChunk> chunks = decoder.decode(split(body, size)).collectList().block();
+            assertEquals(3, chunks.size());
+            assertEquals("你好", chunks.get(0).getContent());
+            assertEquals("，世界", chunks.get(1).getContent());
+            assertFalse(chunks.get(1).isDone());
+            OllamaChunk last = chunks.get(2);
+            assertTrue(last.isDone());
+            assertEquals("", last.getContent());
+            assertEquals(5000, last.getTotalDuration());
+            assertEquals(12, last.getPromptEvalCount());
+            assertEquals(42, last.getEvalCount());
+            assertEquals(4000, last.getEvalDuration());
+        }
+    }
+
+    @Test
+    void testDecodeError() {
+        List<OllamaChunk> chunks = decoder.decode(split("{\"error\":\"model not found\"}", 5)).collectList().block();
+        assertEquals(1, chunks.size());
+        assertEquals("model not found", chunks.get(0).getError());
+        assertNull(chunks.get(0).getContent());
+    }
+}
@@ -6,6 +6,13 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import com.example.sse.repository.MessageRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
@@ -19,7 +26,13 @@ class OllamaServiceTest {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        ollamaService = new OllamaService();
+        ollamaService = new OllamaService(new ChunkCoalescer(30, 256), new OllamaChunkDecoder(),
+                new OllamaBackendPool(List.of(new OllamaBackend("http://localhost:11434",
+                        WebClient.create("http://localhost:11434"))), 3, Duration.ofSeconds(2)),
+                new GenerationCache(60000, 100),
+                new ConversationContext(3000, 50, 100, 60000, mock(MessageRepository.class)),
+                new SimpleMeterRegistry(), mock(GenerationRegistry.class),
+                mock(ResponseCheckpointer.class), "30m");
     }
 
     @Test
@@ -0,0 +1,89 @@
+package com.example.sse.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import reactor.core.Disposable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReactiveSseServiceTest {
+
+    private ReactiveSseService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new ReactiveSseService(16);
+    }
+
+    private Disposable collect(List<String> topics, List<String> events) {
+        return service.subscribe(topics).subscribe(event -> events.add(event.event()));
+    }
+
+    @Test
+    void testBroadcastDeliveredOncePerSubscriber() {
+        List<String> events = new CopyOnWriteArrayList<>();
+        Disposable subscription = collect(List.of("user:1", "conversation:2"), events);
+
+        service.publishToAll(1, "全体通知", "hello");
+        service.publish(2, "conversation:2", "AI响应", "content");
+
+        // 订阅了两个主题的客户端也只收到一次广播
+        assertEquals(List.of("connect", "全体通知", "AI响应"), events);
+        subscription.dispose();
+    }
+
+    @Test
+    void testSubscriberCountReleasedOnCancel() {
+        Disposable first = collect(List.of("conversation:1"), new CopyOnWriteArrayList<>());
+        Disposable second = collect(List.of("conversation:1"), new CopyOnWriteArrayList<>());
+        assertEquals(2, service.getSubscriberCount("conversation:1"));
+
+        first.dispose();
+        assertEquals(1, service.getSubscriberCount("conversation:1"));
+        second.dispose();
+        assertEquals(0, service.getSubscriberCount("conversation:1"));
+        assertEquals(0, service.getActiveTopicCount());
+    }
+
+    @Test
+    void testSubscribeRacingLastUnsubscribeStillReceivesEvents() throws Exception {
+        // 另一个线程反复订阅和取消同一主题，期间新的订阅者不能被挂到已回收的sink上
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> churns = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread churn = new Thread(() -> {
+                while (running.get()) {
+                    collect(List.of("conversation:1"), new CopyOnWriteArrayList<>()).dispose();
+                }
+            });
+            churn.start();
+            churns.add(churn);
+        }
+        try {
+            for (int i = 0; i < 5000; i++) {
+                CountDownLatch received = new CountDownLatch(1);
+                Disposable subscription = service.subscribe(List.of("conversation:1")).subscribe(event -> {
+                    if ("AI响应".equals(event.event())) {
+                        received.countDown();
+                    }
+                });
+                service.publish(i, "conversation:1", "AI响应", "content");
+                assertTrue(received.await(1, TimeUnit.SECONDS), "第 " + i + " 次订阅没有收到事件");
+                subscription.dispose();
+            }
+        } finally {
+            running.set(false);
+            for (Thread churn : churns) {
+                churn.join();
+            }
+        }
+    }
+}
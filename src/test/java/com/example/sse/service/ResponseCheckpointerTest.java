@@ -0,0 +1,95 @@
+package com.example.sse.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.sse.dto.MessageDTO;
+import com.example.sse.repository.MessageRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ResponseCheckpointerTest {
+
+    private MessageService messageService;
+    private ResponseCheckpointer checkpointer;
+    private MessageDTO started;
+
+    @BeforeEach
+    void setUp() {
+        messageService = mock(MessageService.class);
+        // 新增4个字符即写入检查点，时间间隔足够长不会触发
+        checkpointer = new ResponseCheckpointer(60000, 4, mock(MessageRepository.class), new SimpleMeterRegistry());
+        started = new MessageDTO();
+        started.setId(100);
+        started.setConversationId(1);
+        when(messageService.startAiResponse(1)).thenReturn(started);
+    }
+
+    @AfterEach
+    void tearDown() {
+        checkpointer.destroy();
+    }
+
+    @Test
+    void testCheckpointsAndFlipsStatusOnComplete() throws Exception {
+        ResponseCheckpointer.Checkpoint checkpoint = checkpointer.open(1, messageService);
+        checkpoint.append("你好");
+        checkpoint.append("，世界");
+        verify(messageService, timeout(1000)).checkpointAiResponse(100, "你好，世界");
+        checkpoint.complete(null, false).get();
+
+        verify(messageService).startAiResponse(1);
+        // 全部内容已由检查点写入，结束时只修改状态
+        verify(messageService).completeAiResponse(started, "你好，世界", true, false);
+    }
+
+    @Test
+    void testUsesFallbackOrDiscardsWhenNothingGenerated() throws Exception {
+        checkpointer.open(1, messageService).complete(null, false).get();
+        verify(messageService).discardAiResponse(started);
+
+        checkpointer.open(1, messageService).complete("出错了", true).get();
+        verify(messageService).completeAiResponse(started, "出错了", false, true);
+        verify(messageService, never()).checkpointAiResponse(anyInt(), anyString());
+    }
+
+    @Test
+    void testTrackMarksCompletedStream() {
+        List<String> chunks = checkpointer.track(1, messageService, Flux.just("你好", "世界"), "出错了")
+                .collectList().block();
+
+        assertEquals(List.of("你好", "世界"), chunks);
+        // 下游收到结束信号前已标记完成
+        verify(messageService).completeAiResponse(eq(started), eq("你好世界"), anyBoolean(), eq(false));
+    }
+
+    @Test
+    void testTrackMarksCancelledStreamInterrupted() {
+        Sinks.Many<String> generation = Sinks.many().unicast().onBackpressureBuffer();
+        Disposable subscription = checkpointer.track(1, messageService, generation.asFlux(), "出错了").subscribe();
+        generation.tryEmitNext("半截");
+        subscription.dispose();
+
+        verify(messageService, timeout(1000)).completeAiResponse(eq(started), eq("半截"), anyBoolean(), eq(true));
+    }
+
+    @Test
+    void testTrackMarksFailedStreamInterrupted() {
+        Flux<String> failed = Flux.error(new IllegalStateException("boom"));
+        assertThrows(IllegalStateException.class,
+                () -> checkpointer.track(1, messageService, failed, "出错了").blockLast());
+
+        // 没有内容时保存错误提示，同样标记为中断
+        verify(messageService).completeAiResponse(started, "出错了", false, true);
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.sse.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SseDispatcherTest {
+
+    private SseDispatcher dispatcher;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        dispatcher.destroy();
+    }
+
+    private SseDispatcher newDispatcher(int capacity, SseDispatcher.OverflowPolicy policy, int threads,
+                                        long writeTimeoutMillis) {
+        meterRegistry = new SimpleMeterRegistry();
+        return new SseDispatcher(capacity, policy, threads, writeTimeoutMillis, new ObjectMapper(), meterRegistry);
+    }
+
+    @Test
+    void testSlowClientDoesNotBlockCaller() throws Exception {
+        dispatcher = newDispatcher(2, SseDispatcher.OverflowPolicy.DROP_OLDEST, 2, 10000);
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingEmitter slow = new BlockingEmitter(release);
+        SseClient client = new SseClient("1", slow);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            dispatcher.dispatch(client, "AI响应流", "chunk" + i);
+        }
+        // 调用方不应被慢客户端阻塞
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        assertTrue(client.queueSize() <= 2);
+
+        release.countDown();
+        assertTrue(waitFor(() -> client.queueSize() == 0 && !client.getDraining().get()));
+    }
+
+    @Test
+    void testCoalescePolicyMergesStreamContent() throws Exception {
+        dispatcher = newDispatcher(1, SseDispatcher.OverflowPolicy.COALESCE, 1, 10000);
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingEmitter slow = new BlockingEmitter(release);
+        SseClient client = new SseClient("1", slow);
+
+        // 第一个事件被写线程取走并阻塞，其余事件在队列中合并
+        dispatcher.dispatch(client, "AI响应流", Map.of("conversationId", 1, "content", "a"));
+        assertTrue(waitFor(() -> client.queueSize() == 0));
+        dispatcher.dispatch(client, "AI响应流", Map.of("conversationId", 1, "content", "b"));
+        dispatcher.dispatch(client, "AI响应流", Map.of("conversationId", 1, "content", "c"));
+        dispatcher.dispatch(client, "AI响应流", Map.of("conversationId", 1, "content", "d"));
+        assertEquals(1, client.queueSize());
+        assertEquals("bcd", ((Map<?, ?>) client.getQueue().peekLast().getData()).get("content"));
+
+        release.countDown();
+        assertTrue(waitFor(() -> slow.sent.size() == 2));
+    }
+
+    @Test
+    void testDisconnectPolicyClosesSlowClient() throws Exception {
+        dispatcher = newDispatcher(1, SseDispatcher.OverflowPolicy.DISCONNECT, 1, 10000);
+        List<String> failed = new CopyOnWriteArrayList<>();
+        dispatcher.setOnClientFailure(c -> failed.add(c.getId()));
+        CountDownLatch release = new CountDownLatch(1);
+        SseClient client = new SseClient("7", new BlockingEmitter(release));
+
+        for (int i = 0; i < 3; i++) {
+            dispatcher.dispatch(client, "AI响应流", "chunk" + i);
+        }
+        release.countDown();
+        assertTrue(client.isClosed());
+        assertEquals(List.of("7"), failed);
+    }
+
+    @Test
+    void testWriterThreadsAreCapped() throws Exception {
+        dispatcher = newDispatcher(4, SseDispatcher.OverflowPolicy.DROP_OLDEST, 2, 10000);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 50; i++) {
+            dispatcher.dispatch(new SseClient("stalled" + i, new BlockingEmitter(release)), "AI响应流", "chunk");
+        }
+        Thread.sleep(100);
+
+        // 阻塞的连接再多，写线程数也不超过配置
+        long writerThreads = Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().startsWith("sse-writer-") && t.isAlive())
+                .count();
+        assertEquals(2, writerThreads);
+        release.countDown();
+    }
+
+    @Test
+    void testBusyClientYieldsToOthers() throws Exception {
+        dispatcher = newDispatcher(1000, SseDispatcher.OverflowPolicy.DROP_OLDEST, 1, 10000);
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        SseClient busy = new SseClient("busy", new BlockingEmitter(release) {
+            @Override
+            public void send(SseEventBuilder builder) {
+                super.send(builder);
+                order.add("busy");
+            }
+        });
+        for (int i = 0; i < 100; i++) {
+            dispatcher.dispatch(busy, "AI响应流", "chunk" + i);
+        }
+        dispatcher.dispatch(new SseClient("other", new BlockingEmitter(new CountDownLatch(0)) {
+            @Override
+            public void send(SseEventBuilder builder) {
+                super.send(builder);
+                order.add("other");
+            }
+        }), "AI响应流", "chunk");
+        release.countDown();
+
+        // 积压很多的连接写满一轮后让出线程，其它连接不必等它排空
+        assertTrue(waitFor(() -> order.size() == 101));
+        assertTrue(order.indexOf("other") < 100);
+    }
+
+    @Test
+    void testWriteExceedingDeadlineClosesClientWithoutWaitingForWrite() throws Exception {
+        dispatcher = newDispatcher(4, SseDispatcher.OverflowPolicy.DROP_OLDEST, 2, 200);
+        List<String> failed = new CopyOnWriteArrayList<>();
+        dispatcher.setOnClientFailure(c -> failed.add(c.getId()));
+        // 写入持有emitter的锁且不响应中断，和容器的阻塞写一样
+        CountDownLatch release = new CountDownLatch(1);
+        StallingEmitter first = new StallingEmitter(release);
+        StallingEmitter second = new StallingEmitter(release);
+        SseClient stalled1 = new SseClient("8", first);
+        SseClient stalled2 = new SseClient("9", second);
+        dispatcher.dispatch(stalled1, "AI响应流", "chunk");
+        dispatcher.dispatch(stalled2, "AI响应流", "chunk");
+
+        // 看门狗不会阻塞在第一个连接的emitter锁上，两个连接都被关闭
+        assertTrue(waitFor(() -> stalled1.isClosed() && stalled2.isClosed()));
+        assertEquals(2, failed.size());
+        assertFalse(first.completed);
+
+        // 写入返回后由写线程结束emitter
+        release.countDown();
+        assertTrue(waitFor(() -> first.completed && second.completed));
+    }
+
+    @Test
+    void testOverflowCountedInMetric() throws Exception {
+        dispatcher = newDispatcher(2, SseDispatcher.OverflowPolicy.DROP_OLDEST, 1, 10000);
+        CountDownLatch release = new CountDownLatch(1);
+        SseClient client = new SseClient("1", new BlockingEmitter(release));
+
+        dispatcher.dispatch(client, "AI响应流", "chunk0");
+        assertTrue(waitFor(() -> client.queueSize() == 0));
+        for (int i = 1; i <= 10; i++) {
+            dispatcher.dispatch(client, "AI响应流", "chunk" + i);
+        }
+        // 写线程阻塞在第一个事件上，队列容量2，其余8个事件按策略丢弃
+        assertEquals(8, meterRegistry.counter("sse.dispatch.overflow", "policy", "DROP_OLDEST").count());
+        release.countDown();
+    }
+
+    private static boolean waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 200; i++) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    /**
+     * 持有emitter的锁阻塞发送，且不响应中断，模拟阻塞在socket写入上的SseEmitter
+     */
+    static class StallingEmitter extends SseEmitter {
+        private final CountDownLatch release;
+        volatile boolean completed;
+
+        StallingEmitter(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            synchronized (this) {
+                boolean interrupted = false;
+                while (release.getCount() > 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public synchronized void complete() {
+            completed = true;
+            super.complete();
+        }
+    }
+
+    /**
+     * 在放行前阻塞每次发送，模拟慢客户端
+     */
+    private static class BlockingEmitter extends SseEmitter {
+        private final CountDownLatch release;
+        private final List<Object> sent = new CopyOnWriteArrayList<>();
+
+        BlockingEmitter(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sent.add(builder);
+        }
+    }
+}
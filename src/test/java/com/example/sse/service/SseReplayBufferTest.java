@@ -0,0 +1,65 @@
+package com.example.sse.service;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SseReplayBufferTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private SseFrame frame(long id) {
+        return SseFrame.encode(id, "AI响应流", "chunk" + id, objectMapper);
+    }
+
+    private static List<Long> ids(List<SseFrame> frames) {
+        return frames.stream().map(SseFrame::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    void testReplaysOnlyMissedFrames() {
+        SseReplayBuffer buffer = new SseReplayBuffer(4, 16);
+        SseReplayBuffer.Ring ring = buffer.ringFor("conversation:1");
+        for (long id = 1; id <= 3; id++) {
+            ring.append(frame(id));
+        }
+
+        assertEquals(List.of(2L, 3L), ids(ring.since(1)));
+        assertTrue(ring.covers(1));
+        assertTrue(buffer.ringFor("conversation:1").since(3).isEmpty());
+    }
+
+    @Test
+    void testOverwrittenFramesReportedAsGap() {
+        SseReplayBuffer buffer = new SseReplayBuffer(2, 16);
+        SseReplayBuffer.Ring ring = buffer.ringFor("conversation:1");
+        for (long id = 1; id <= 4; id++) {
+            ring.append(frame(id));
+        }
+
+        // 帧2已被覆盖，从帧1之后重放不完整；从帧2之后则完整
+        assertEquals(List.of(3L, 4L), ids(ring.since(1)));
+        assertFalse(ring.covers(1));
+        assertTrue(ring.covers(2));
+    }
+
+    @Test
+    void testEvictedTopicRecreatedReportsGap() {
+        SseReplayBuffer buffer = new SseReplayBuffer(4, 1);
+        buffer.ringFor("conversation:1").append(frame(1));
+        buffer.ringFor("conversation:1").append(frame(2));
+        // 只保留一个主题，conversation:1被淘汰
+        buffer.ringFor("conversation:2").append(frame(3));
+
+        SseReplayBuffer.Ring recreated = buffer.ringFor("conversation:1");
+        assertTrue(recreated.since(1).isEmpty());
+        assertFalse(recreated.covers(1));
+        // 淘汰前已收到全部事件的客户端没有缺失
+        assertTrue(recreated.covers(2));
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.sse.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SseServiceTest {
+
+    private SseDispatcher dispatcher;
+    private SseService sseService;
+
+    @BeforeEach
+    void setUp() {
+        dispatcher = new SseDispatcher(16, SseDispatcher.OverflowPolicy.DROP_OLDEST, 1, 10000,
+                new ObjectMapper(), new SimpleMeterRegistry());
+        sseService = new SseService(event -> { }, dispatcher, new ReactiveSseService(16),
+                new SseReplayBuffer(16, 16), 45000, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        dispatcher.destroy();
+    }
+
+    @Test
+    void testReconnectReplaysMissedTopicEvents() throws Exception {
+        String topic = SseService.conversationTopic(1);
+        RecordingEmitter first = new RecordingEmitter();
+        sseService.createEmitter(first, List.of(topic), null);
+        sseService.sendToTopic(topic, "AI响应流", "a");
+        assertTrue(waitFor(() -> first.names().equals(List.of("connect", "AI响应流"))));
+        Long lastSeen = first.frames.get(1).getId();
+
+        // 断线期间发布的事件
+        sseService.sendToTopic(topic, "AI响应流", "b");
+        sseService.sendToTopic(topic, "AI响应结束", "c");
+
+        RecordingEmitter reconnected = new RecordingEmitter();
+        sseService.createEmitter(reconnected, List.of(topic), lastSeen);
+        sseService.sendToTopic(topic, "AI响应流", "d");
+
+        // 先补发错过的事件，再接收新事件，不重复也不乱序
+        assertTrue(waitFor(() -> reconnected.frames.size() == 4));
+        assertEquals(List.of("connect", "AI响应流", "AI响应结束", "AI响应流"), reconnected.names());
+        assertEquals(List.of("b", "c", "d"), reconnected.frames.subList(1, 4).stream()
+                .map(SseFrame::getData).collect(Collectors.toList()));
+    }
+
+    @Test
+    void testReconnectBeyondReplayBufferRequestsResync() throws Exception {
+        // 每个主题只保留2个事件
+        SseService service = new SseService(event -> { }, dispatcher, new ReactiveSseService(16),
+                new SseReplayBuffer(2, 16), 45000, new SimpleMeterRegistry());
+        String topic = SseService.conversationTopic(1);
+        RecordingEmitter first = new RecordingEmitter();
+        service.createEmitter(first, List.of(topic), null);
+        service.sendToTopic(topic, "AI响应流", "a");
+        assertTrue(waitFor(() -> first.frames.size() == 2));
+        Long lastSeen = first.frames.get(1).getId();
+
+        // 断线期间发布的事件超出缓冲区，最早的一个已被覆盖
+        service.sendToTopic(topic, "AI响应流", "b");
+        service.sendToTopic(topic, "AI响应流", "c");
+        service.sendToTopic(topic, "AI响应结束", "d");
+
+        RecordingEmitter reconnected = new RecordingEmitter();
+        service.createEmitter(reconnected, List.of(topic), lastSeen);
+        service.sendToTopic(topic, "AI响应流", "e");
+
+        // 不补发残缺的事件，通知客户端重新同步后继续接收新事件
+        assertTrue(waitFor(() -> reconnected.frames.size() == 3));
+        assertEquals(List.of("connect", SseService.RESYNC_EVENT, "AI响应流"), reconnected.names());
+        assertEquals(Map.of("topic", topic), reconnected.frames.get(1).getData());
+        assertEquals("e", reconnected.frames.get(2).getData());
+    }
+
+    @Test
+    void testHeartbeatClosesStalledClientWithoutBlocking() throws Exception {
+        // 50ms未写出即视为失去响应
+        SseService service = new SseService(event -> { }, dispatcher, new ReactiveSseService(16),
+                new SseReplayBuffer(16, 16), 50, new SimpleMeterRegistry());
+        CountDownLatch release = new CountDownLatch(1);
+        SseDispatcherTest.StallingEmitter stalled = new SseDispatcherTest.StallingEmitter(release);
+        service.createEmitter(stalled, List.of(SseService.conversationTopic(1)), null);
+        service.sendToTopic(SseService.conversationTopic(1), "AI响应流", "a");
+        Thread.sleep(100);
+
+        // 连接的写线程阻塞在emitter锁上，心跳关闭它时不能跟着阻塞
+        assertTimeoutPreemptively(Duration.ofSeconds(1), service::heartbeat);
+        assertEquals(0, service.getActiveConnectionsCount());
+
+        release.countDown();
+        assertTrue(waitFor(() -> stalled.completed));
+    }
+
+    private static boolean waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 200; i++) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    /**
+     * 记录收到的帧
+     */
+    private static class RecordingEmitter extends SseEmitter {
+        private final List<SseFrame> frames = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            frames.add((SseFrame) builder);
+        }
+
+        private List<String> names() {
+            return frames.stream().map(SseFrame::getName).collect(Collectors.toList());
+        }
+    }
+}